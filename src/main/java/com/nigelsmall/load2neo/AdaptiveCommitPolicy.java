@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Commit policy whose subgraph limit follows an additive-increase,
+ * multiplicative-decrease scheme: the limit grows by a fixed step after
+ * every commit that completes within the target latency and is halved
+ * after any commit that is slower than that or that finds the old
+ * generation of the heap more than HEAP_THRESHOLD full after its last
+ * collection.
+ */
+class AdaptiveCommitPolicy extends CommitPolicy {
+
+    private final static double HEAP_THRESHOLD = 0.8;
+
+    private final static MemoryPoolMXBean OLD_GENERATION = findOldGeneration();
+
+    private final int ceiling;
+    private final int step;
+    private final long targetLatency;
+
+    private volatile int maxSubgraphs;
+
+    AdaptiveCommitPolicy(int initialSubgraphs, int ceiling, long maxEntities, long maxMillis, long targetLatency) {
+        super(initialSubgraphs, maxEntities, maxMillis);
+        if (ceiling < initialSubgraphs) {
+            throw new IllegalArgumentException("batch_size must not exceed " + ceiling + " for adaptive loads");
+        }
+        if (targetLatency < 1) {
+            throw new IllegalArgumentException("target_latency must be positive");
+        }
+        this.ceiling = ceiling;
+        this.step = Math.max(initialSubgraphs, 10);
+        this.targetLatency = targetLatency;
+        this.maxSubgraphs = initialSubgraphs;
+    }
+
+    @Override
+    int getMaxSubgraphs() {
+        return maxSubgraphs;
+    }
+
+    @Override
+    synchronized void committed(long latency) {
+        if (latency > targetLatency || heapUsage() > HEAP_THRESHOLD) {
+            maxSubgraphs = Math.max(1, maxSubgraphs / 2);
+        } else {
+            maxSubgraphs = Math.min(ceiling, maxSubgraphs + step);
+        }
+    }
+
+    /**
+     * Return the fraction of the old generation still in use after it was
+     * last collected, which unlike the current heap usage leaves out any
+     * garbage that has yet to be collected, or zero if that is not known.
+     */
+    private static double heapUsage() {
+        if (OLD_GENERATION == null) {
+            return 0;
+        }
+        MemoryUsage usage = OLD_GENERATION.getCollectionUsage();
+        if (usage == null || usage.getMax() <= 0) {
+            return 0;
+        }
+        return (double) usage.getUsed() / usage.getMax();
+    }
+
+    private static MemoryPoolMXBean findOldGeneration() {
+        // the old generation is the only heap pool that supports a usage threshold
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+}
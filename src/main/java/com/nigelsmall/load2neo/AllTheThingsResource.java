@@ -16,20 +16,27 @@
 
 package com.nigelsmall.load2neo;
 
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.Transaction;
-import org.neo4j.tooling.GlobalGraphOperations;
 
 import javax.ws.rs.DELETE;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.*;
+import java.nio.charset.Charset;
 
 @Path("/all_the_things")
 public class AllTheThingsResource {
 
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
     private final GraphDatabaseService database;
 
     public AllTheThingsResource(@Context GraphDatabaseService database) {
@@ -37,26 +44,109 @@ public class AllTheThingsResource {
     }
 
     @DELETE
-    public Response deleteAllTheThings() {
+    @Produces("text/x-tab-separated-json; charset=UTF-8")
+    public Response deleteAllTheThings(@QueryParam("batch_size") Integer batchSize,
+                                       @QueryParam("parallelism") Integer parallelism,
+                                       @QueryParam("async") boolean async,
+                                       @QueryParam("progress") boolean progress,
+                                       @Context UriInfo info) {
+        BulkDelete delete;
+        try {
+            delete = new Wipe(newDeleter(batchSize), newRetryPolicy(),
+                    parallelism == null ? Settings.DELETE_PARALLELISM : parallelism);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        return start(delete, async, progress, info);
+    }
 
-        try (Transaction tx = database.beginTx()) {
+    @DELETE
+    @Path("/label/{label}")
+    @Produces("text/x-tab-separated-json; charset=UTF-8")
+    public Response deleteNodesWithLabel(@PathParam("label") String label,
+                                         @QueryParam("batch_size") Integer batchSize,
+                                         @QueryParam("async") boolean async,
+                                         @QueryParam("progress") boolean progress,
+                                         @Context UriInfo info) {
+        BulkDelete delete;
+        try {
+            delete = new ScopedDelete(newDeleter(batchSize), newRetryPolicy(), DynamicLabel.label(label), null, false);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        return start(delete, async, progress, info);
+    }
 
-            GlobalGraphOperations global = GlobalGraphOperations.at(database);
+    @DELETE
+    @Path("/type/{type}")
+    @Produces("text/x-tab-separated-json; charset=UTF-8")
+    public Response deleteRelationshipsOfType(@PathParam("type") String type,
+                                              @QueryParam("label") String label,
+                                              @QueryParam("scan") boolean scan,
+                                              @QueryParam("batch_size") Integer batchSize,
+                                              @QueryParam("async") boolean async,
+                                              @QueryParam("progress") boolean progress,
+                                              @Context UriInfo info) {
+        BulkDelete delete;
+        try {
+            delete = new ScopedDelete(newDeleter(batchSize), newRetryPolicy(),
+                    label == null ? null : DynamicLabel.label(label), DynamicRelationshipType.withName(type), scan);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        return start(delete, async, progress, info);
+    }
 
-            for (Relationship rel : global.getAllRelationships()) {
-                rel.delete();
-            }
+    private BatchDeleter newDeleter(Integer batchSize) {
+        return new BatchDeleter(database, batchSize == null ? Settings.DELETE_BATCH_SIZE : batchSize,
+                new DeleteProgress());
+    }
 
-            for (Node node : global.getAllNodes()) {
-                node.delete();
-            }
+    private static RetryPolicy newRetryPolicy() {
+        return new RetryPolicy(Settings.RETRIES, Settings.RETRY_BACKOFF);
+    }
 
-            tx.success();
+    /**
+     * Run a bulk delete, either as a background job or within the request.
+     * A delete run within the request returns no content once it is done,
+     * unless progress is asked for, in which case its progress is streamed
+     * as the response.
+     */
+    static Response start(final BulkDelete delete, boolean async, boolean progress, UriInfo info) {
+        if (async) {
+            return JobResource.submit(info, new DeleteJob(JobRegistry.getInstance().nextId(), delete));
+        }
 
+        if (!progress) {
+            try {
+                delete.run(new BulkDelete.Listener() {
+                    @Override
+                    public void progress(BulkDelete delete) { }
+                });
+            } catch (IOException ex) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage() + "\n").build();
+            }
+            return Response.status(Response.Status.NO_CONTENT).build();
         }
 
-        return Response.status(Response.Status.NO_CONTENT).build();
+        StreamingOutput stream = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream os) throws IOException {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF8));
+                delete.run(new BulkDelete.Listener() {
+                    @Override
+                    public void progress(BulkDelete delete) throws IOException {
+                        writer.write(delete.toJson());
+                        writer.write("\n");
+                        writer.flush();
+                    }
+                });
+            }
+
+        };
 
+        return Response.status(Response.Status.OK).entity(stream).build();
     }
 
 }
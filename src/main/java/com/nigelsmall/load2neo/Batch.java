@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.AbstractNode;
+import com.nigelsmall.geoff.Subgraph;
+import org.neo4j.graphdb.Node;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A run of consecutive subgraphs that are loaded in the same transaction,
+ * along with the nodes they loaded once that transaction has committed.
+ */
+class Batch {
+
+    private final long startTime = System.currentTimeMillis();
+    private final long offset;
+
+    private final List<Subgraph> subgraphs = new ArrayList<>();
+    private final List<Map<String, Node>> results = new ArrayList<>();
+
+    private long nodeCount = 0;
+    private long relationshipCount = 0;
+
+    /**
+     * Create an empty batch, given the offset in the input of the subgraph
+     * that will be its first.
+     */
+    Batch(long offset) {
+        this.offset = offset;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    void add(Subgraph subgraph) {
+        subgraphs.add(subgraph);
+        nodeCount += subgraph.getNodes().size();
+        relationshipCount += subgraph.getRelationships().size();
+    }
+
+    List<Subgraph> getSubgraphs() {
+        return subgraphs;
+    }
+
+    int size() {
+        return subgraphs.size();
+    }
+
+    long getNodeCount() {
+        return nodeCount;
+    }
+
+    long getRelationshipCount() {
+        return relationshipCount;
+    }
+
+    /**
+     * Return the merge keys of all unique nodes in this batch.
+     */
+    Set<MergeKey> getMergeKeys() {
+        Set<MergeKey> keys = new HashSet<>();
+        for (Subgraph subgraph : subgraphs) {
+            for (AbstractNode node : subgraph.getNodes().values()) {
+                MergeKey key = MergeKey.of(node);
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Return the time at which this batch becomes due under the time limit
+     * of a commit policy, or Long.MAX_VALUE if it has none.
+     */
+    long getDeadline(CommitPolicy policy) {
+        long maxMillis = policy.getMaxMillis();
+        return maxMillis > 0 ? startTime + maxMillis : Long.MAX_VALUE;
+    }
+
+    boolean isDue(CommitPolicy policy) {
+        return policy.isDue(subgraphs.size(), nodeCount + relationshipCount,
+                System.currentTimeMillis() - startTime);
+    }
+
+    void addResult(Map<String, Node> nodes) {
+        results.add(nodes);
+    }
+
+    List<Map<String, Node>> getResults() {
+        return results;
+    }
+
+    void clearResults() {
+        results.clear();
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.index.RelationshipIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deletes nodes and relationships in batches, committing after each batch
+ * so that the size of a transaction stays bounded however much is deleted.
+ * Entities are found by scans through the public graph API, streamed as
+ * batches of ids; each call deletes one batch from a given index of such
+ * an array of ids and returns the index from which to carry on, so that
+ * callers can report progress or stop between batches. A node with more
+ * relationships than fit in one batch has them deleted over several
+ * batches before the node itself is deleted. Deletes scoped to a label
+ * find their nodes by label scan, and those scoped to a load find them
+ * through the provenance indexes.
+ */
+class BatchDeleter {
+
+    private final GraphDatabaseService database;
+    private final int batchSize;
+    private final DeleteProgress progress;
+
+    BatchDeleter(GraphDatabaseService database, int batchSize, DeleteProgress progress) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch_size must be positive");
+        }
+        this.database = database;
+        this.batchSize = batchSize;
+        this.progress = progress;
+    }
+
+    DeleteProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Return one more than the highest id that may be in use for nodes or
+     * relationships.
+     */
+    long getIdLimit(Class<?> type) {
+        return Watermarks.getIdLimit(database, type);
+    }
+
+    /**
+     * Stream the ids of every node, one batch at a time.
+     */
+    IdStream nodeIds() {
+        return IdStream.allNodes(database, batchSize);
+    }
+
+    /**
+     * Stream the ids of every node with a given label, one batch at a time.
+     */
+    IdStream nodeIds(Label label) {
+        return IdStream.nodesWithLabel(database, label, batchSize);
+    }
+
+    /**
+     * Stream the ids of every relationship, or of every relationship of a
+     * given type if that is not null, one batch at a time.
+     */
+    IdStream relationshipIds(RelationshipType type) {
+        return IdStream.allRelationships(database, type, batchSize);
+    }
+
+    /**
+     * Stream the ids from {@code from} up to but excluding {@code to}, one
+     * batch at a time, whether or not they are in use.
+     */
+    IdStream idRange(long from, long to) {
+        return IdStream.range(from, to, batchSize);
+    }
+
+    /**
+     * Delete up to one batch of the relationships with the ids held in
+     * {@code ids} from index {@code from} onward, returning the index from
+     * which to continue. Relationships that no longer exist are skipped.
+     */
+    int deleteRelationships(long[] ids, int from) {
+        int index = from;
+        long count = 0;
+        try (Transaction tx = database.beginTx()) {
+            for (; index < ids.length && count < batchSize; index++) {
+                try {
+                    database.getRelationshipById(ids[index]).delete();
+                    count += 1;
+                } catch (NotFoundException ex) {
+                    // not in use
+                }
+            }
+            tx.success();
+        }
+        progress.deleted(count, 0);
+        return index;
+    }
+
+    /**
+     * Delete up to one batch of the nodes with the ids held in {@code ids}
+     * from index {@code from} onward, along with any relationships they
+     * still have, returning the index from which to continue. Nodes that
+     * no longer exist are skipped.
+     */
+    int deleteNodes(long[] ids, int from) {
+        int index = from;
+        Count count = new Count();
+        try (Transaction tx = database.beginTx()) {
+            for (; index < ids.length && count.total() < batchSize; index++) {
+                Node node;
+                try {
+                    node = database.getNodeById(ids[index]);
+                } catch (NotFoundException ex) {
+                    continue;
+                }
+                if (!deleteNode(node, count)) {
+                    // carry on with this node in the next batch
+                    break;
+                }
+            }
+            tx.success();
+        }
+        progress.deleted(count.relationships, count.nodes);
+        return index;
+    }
+
+    /**
+     * Delete up to one batch of the relationships of a given type attached
+     * to the nodes with the ids held in {@code nodeIds} from index
+     * {@code from} onward, returning the index from which to continue.
+     * Nodes that no longer exist are skipped.
+     */
+    int deleteRelationshipsOfType(RelationshipType type, long[] nodeIds, int from) {
+        int index = from;
+        long count = 0;
+        try (Transaction tx = database.beginTx()) {
+            for (; index < nodeIds.length && count < batchSize; index++) {
+                Node node;
+                try {
+                    node = database.getNodeById(nodeIds[index]);
+                } catch (NotFoundException ex) {
+                    continue;
+                }
+                for (Relationship relationship : node.getRelationships(type)) {
+                    if (count == batchSize) {
+                        break;
+                    }
+                    relationship.delete();
+                    count += 1;
+                }
+                if (count == batchSize && node.hasRelationship(type)) {
+                    // carry on with this node in the next batch
+                    break;
+                }
+            }
+            tx.success();
+        }
+        progress.deleted(count, 0);
+        return index;
+    }
+
+    /**
+     * Delete up to one batch of the relationships created by a load,
+     * returning false once there are none left. Index entries that refer
+     * to a relationship from another load, which can happen once ids have
+     * been reused, are removed without deleting the relationship.
+     */
+    boolean deleteLoadRelationships(String loadId) {
+        long count = 0;
+        int visited;
+        try (Transaction tx = database.beginTx()) {
+            RelationshipIndex index = Provenance.relationshipIndex(database);
+            List<Relationship> batch = new ArrayList<>();
+            try (IndexHits<Relationship> hits = index.get(Provenance.INDEX_KEY, loadId)) {
+                while (hits.hasNext() && batch.size() < batchSize) {
+                    batch.add(hits.next());
+                }
+            }
+            for (Relationship relationship : batch) {
+                index.remove(relationship, Provenance.INDEX_KEY, loadId);
+                if (loadId.equals(relationship.getProperty(Settings.LOAD_ID_PROPERTY, null))) {
+                    relationship.delete();
+                    count += 1;
+                }
+            }
+            visited = batch.size();
+            tx.success();
+        }
+        progress.deleted(count, 0);
+        return visited > 0;
+    }
+
+    /**
+     * Delete up to one batch of the nodes created by a load, returning
+     * false once there are none left. The load's own relationships should
+     * have been deleted first; a node that still has relationships, which
+     * must belong to other loads, is kept and only dropped from the index.
+     */
+    boolean deleteLoadNodes(String loadId) {
+        long count = 0;
+        long kept = 0;
+        int visited;
+        try (Transaction tx = database.beginTx()) {
+            Index<Node> index = Provenance.nodeIndex(database);
+            List<Node> batch = new ArrayList<>();
+            try (IndexHits<Node> hits = index.get(Provenance.INDEX_KEY, loadId)) {
+                while (hits.hasNext() && batch.size() < batchSize) {
+                    batch.add(hits.next());
+                }
+            }
+            for (Node node : batch) {
+                index.remove(node, Provenance.INDEX_KEY, loadId);
+                if (loadId.equals(node.getProperty(Settings.LOAD_ID_PROPERTY, null))) {
+                    if (node.hasRelationship()) {
+                        kept += 1;
+                    } else {
+                        node.delete();
+                        count += 1;
+                    }
+                }
+            }
+            visited = batch.size();
+            tx.success();
+        }
+        progress.deleted(0, count);
+        progress.kept(kept);
+        return visited > 0;
+    }
+
+    /**
+     * Delete a node's relationships, as many as fit in what is left of
+     * the batch, and then the node itself if none remain. Return false if
+     * the node is left for a later batch.
+     */
+    private boolean deleteNode(Node node, Count count) {
+        for (Relationship relationship : node.getRelationships()) {
+            if (count.total() >= batchSize) {
+                return false;
+            }
+            relationship.delete();
+            count.relationships += 1;
+        }
+        node.delete();
+        count.nodes += 1;
+        return true;
+    }
+
+    /**
+     * The entities deleted so far by one batch.
+     */
+    private static class Count {
+
+        long relationships = 0;
+        long nodes = 0;
+
+        long total() {
+            return relationships + nodes;
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+/**
+ * A Bloom filter over strings. It may report that it contains a string
+ * that was never added, but never the reverse.
+ */
+class BloomFilter {
+
+    // bit indexes are taken from 31 bits of hash, so a filter never has more bits than this
+    final static long MAX_BITS = 1L << 31;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * Create a filter sized for the given number of entries at the given
+     * false positive probability. A filter that would need more than
+     * MAX_BITS bits is held to that size, and so has a higher false
+     * positive probability than asked for.
+     */
+    BloomFilter(long expectedEntries, double falsePositiveProbability) {
+        this.bits = new long[(int) (getBitCount(expectedEntries, falsePositiveProbability) / 64)];
+        this.bitCount = 64L * bits.length;
+        this.hashCount = (int) Math.max(1, Math.round((double) this.bitCount / expectedEntries * Math.log(2)));
+    }
+
+    /**
+     * Return the number of bits, a whole number of longs but at most
+     * MAX_BITS, in a filter for the given number of entries at the given
+     * false positive probability.
+     */
+    static long getBitCount(long expectedEntries, double falsePositiveProbability) {
+        if (expectedEntries < 1) {
+            throw new IllegalArgumentException("expected entries must be positive");
+        }
+        if (!(falsePositiveProbability > 0 && falsePositiveProbability < 1)) {
+            throw new IllegalArgumentException("false positive probability must be between 0 and 1");
+        }
+        double bitCount = Math.ceil(-expectedEntries * Math.log(falsePositiveProbability) /
+                (Math.log(2) * Math.log(2)));
+        if (bitCount >= MAX_BITS) {
+            return MAX_BITS;
+        }
+        return Math.max(64, ((long) bitCount + 63) / 64 * 64);
+    }
+
+    synchronized void add(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    synchronized boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long index(int combined) {
+        return (combined & 0x7fffffffL) % bitCount;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of a string.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.io.IOException;
+
+/**
+ * A delete of many entities, carried out as a series of batches through a
+ * batch deleter. A bulk delete reports its progress to a listener at
+ * regular intervals and may be cancelled between batches.
+ */
+abstract class BulkDelete {
+
+    interface Listener {
+
+        void progress(BulkDelete delete) throws IOException;
+
+    }
+
+    /**
+     * One batch of a bulk delete, returning the cursor from which the next
+     * batch should carry on.
+     */
+    interface Step {
+
+        long run();
+
+    }
+
+    /**
+     * One batch of deletes from an array of ids, returning the index from
+     * which the next batch should carry on.
+     */
+    interface IdStep {
+
+        int run(long[] ids, int from);
+
+    }
+
+    final static long PROGRESS_MILLIS = 1000;
+
+    final BatchDeleter deleter;
+    final RetryPolicy retryPolicy;
+
+    volatile boolean cancelled = false;
+
+    BulkDelete(BatchDeleter deleter, RetryPolicy retryPolicy) {
+        this.deleter = deleter;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Stop the delete once the batches in progress have finished.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    abstract void run(Listener listener) throws IOException;
+
+    /**
+     * Run one batch, running it again if it is chosen as the victim of a
+     * deadlock.
+     */
+    long runStep(Step step) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return step.run();
+            } catch (RuntimeException ex) {
+                if (cancelled || !retryPolicy.isRetryable(ex, attempt)) {
+                    throw ex;
+                }
+                retryPolicy.backoff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Delete the entities with the ids from a stream, one batch after
+     * another, until the stream ends or the delete is cancelled. Progress
+     * is reported to the listener, if there is one, at regular intervals.
+     */
+    void drain(IdStream stream, final IdStep step, Listener listener) throws IOException, InterruptedException {
+        long lastProgress = System.currentTimeMillis();
+        try {
+            long[] ids;
+            while (!cancelled && (ids = stream.next()) != null) {
+                final long[] batch = ids;
+                int index = 0;
+                while (index < batch.length && !cancelled) {
+                    final int from = index;
+                    index = (int) runStep(new Step() {
+                        @Override
+                        public long run() {
+                            return step.run(batch, from);
+                        }
+                    });
+                    long now = System.currentTimeMillis();
+                    if (listener != null && now - lastProgress >= PROGRESS_MILLIS) {
+                        listener.progress(this);
+                        lastProgress = now;
+                    }
+                }
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    String toJson() {
+        DeleteProgress progress = deleter.getProgress();
+        long relationships = progress.getRelationships();
+        long nodes = progress.getNodes();
+        long elapsed = progress.getElapsedMillis();
+        StringBuilder builder = new StringBuilder("{");
+        builder.append("\"relationships_deleted\":").append(relationships).append(",");
+        builder.append("\"nodes_deleted\":").append(nodes).append(",");
+        appendJson(builder);
+        builder.append("\"deleted_per_second\":").append(elapsed == 0 ? 0 : 1000 * (relationships + nodes) / elapsed).append(",");
+        builder.append("\"elapsed_ms\":").append(elapsed);
+        return builder.append("}").toString();
+    }
+
+    /**
+     * Add any further progress fields to a JSON object under construction,
+     * each followed by a comma.
+     */
+    void appendJson(StringBuilder builder) { }
+
+}
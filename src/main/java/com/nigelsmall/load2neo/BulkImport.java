@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.AbstractNode;
+import com.nigelsmall.geoff.AbstractRelationship;
+import com.nigelsmall.geoff.Subgraph;
+import com.nigelsmall.geoff.reader.GeoffReader;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Label;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Offline import of Geoff files directly into a store directory through
+ * the Neo4j batch inserter, for seeding a database too large to load
+ * through the server extension. The server must not be running against
+ * the store while the import takes place.
+ *
+ * Input files are parsed in parallel, one thread per file, into a bounded
+ * queue from which a single thread writes to the store, as the batch
+ * inserter is not thread-safe. Node names are local to each subgraph, as
+ * with the server loader, unless --share-names is given, in which case a
+ * name refers to the same node across all input. Unique nodes are merged
+ * with those created earlier in the same import. Shared names and merge
+ * keys are tracked in off-heap maps; nodes already in the store are not
+ * merged with.
+ *
+ *     java -cp 'load2neo.jar:geoff.jar:$NEO4J_HOME/lib/*' com.nigelsmall.load2neo.BulkImport \
+ *         [--threads n] [--share-names] store-dir file.geoff...
+ */
+public class BulkImport {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static long POLL_MILLIS = 100;
+    private final static long REPORT_INTERVAL = 100000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean shareNames = false;
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        while (!arguments.isEmpty() && arguments.get(0).startsWith("--")) {
+            if (arguments.size() >= 2 && arguments.get(0).equals("--threads")) {
+                threads = Integer.parseInt(arguments.get(1));
+                arguments = arguments.subList(2, arguments.size());
+            } else if (arguments.get(0).equals("--share-names")) {
+                shareNames = true;
+                arguments = arguments.subList(1, arguments.size());
+            } else {
+                break;
+            }
+        }
+        if (arguments.size() < 2 || threads < 1) {
+            System.err.println("usage: BulkImport [--threads n] [--share-names] store-dir file.geoff...");
+            System.exit(1);
+        }
+        List<File> files = new ArrayList<>();
+        for (String name : arguments.subList(1, arguments.size())) {
+            files.add(new File(name));
+        }
+        BatchInserter inserter = BatchInserters.inserter(arguments.get(0));
+        try {
+            BulkImport bulkImport = new BulkImport(inserter, shareNames);
+            bulkImport.run(files, threads);
+            System.err.println(bulkImport.getProgress());
+        } finally {
+            inserter.shutdown();
+        }
+    }
+
+    private final BatchInserter inserter;
+
+    private final NameMap names;
+    private final NameMap mergeKeys = new OffHeapNameMap();
+    private final BlockingQueue<Subgraph> subgraphs = new ArrayBlockingQueue<>(Settings.QUEUE_SIZE);
+
+    private volatile boolean stopped = false;
+
+    private long subgraphCount = 0;
+    private long nodeCount = 0;
+    private long relationshipCount = 0;
+
+    BulkImport(BatchInserter inserter, boolean shareNames) {
+        this.inserter = inserter;
+        this.names = shareNames ? new OffHeapNameMap() : null;
+    }
+
+    void run(List<File> files, int threads) throws Exception {
+        ExecutorService parsers = Executors.newFixedThreadPool(Math.min(threads, files.size()),
+                new NamedThreadFactory("load2neo-parser"));
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (final File file : files) {
+                futures.add(parsers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        parse(file);
+                        return null;
+                    }
+                }));
+            }
+            long startTime = System.currentTimeMillis();
+            while (true) {
+                Subgraph subgraph = subgraphs.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (subgraph != null) {
+                    insert(subgraph);
+                    if (subgraphCount % REPORT_INTERVAL == 0) {
+                        System.err.println(getProgress() + " in " + (System.currentTimeMillis() - startTime) + "ms");
+                    }
+                } else if (allDone(futures)) {
+                    // the parsers have queued their last subgraphs, if any
+                    subgraph = subgraphs.poll();
+                    if (subgraph == null) {
+                        break;
+                    }
+                    insert(subgraph);
+                }
+            }
+        } finally {
+            stopped = true;
+            parsers.shutdown();
+        }
+    }
+
+    String getProgress() {
+        return subgraphCount + " subgraphs, " + nodeCount + " nodes, " + relationshipCount + " relationships";
+    }
+
+    private void parse(File file) throws Exception {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            GeoffReader geoffReader = new GeoffReader(reader);
+            while (geoffReader.hasMore()) {
+                Subgraph subgraph = geoffReader.readSubgraph();
+                while (!subgraphs.offer(subgraph, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if every parser has finished, rethrowing the failure of
+     * any that did not finish cleanly.
+     */
+    private static boolean allDone(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof Exception ? (Exception) cause : new ExecutionException(cause);
+            }
+        }
+        return true;
+    }
+
+    private void insert(Subgraph subgraph) {
+        Map<String, Long> ids = new HashMap<>();
+        for (AbstractNode abstractNode : subgraph.getNodes().values()) {
+            ids.put(abstractNode.getName(), insertNode(abstractNode));
+        }
+        for (AbstractRelationship abstractRelationship : subgraph.getRelationships()) {
+            inserter.createRelationship(
+                    ids.get(abstractRelationship.getStartNode().getName()),
+                    ids.get(abstractRelationship.getEndNode().getName()),
+                    DynamicRelationshipType.withName(abstractRelationship.getType()),
+                    toProperties(abstractRelationship.getProperties()));
+            relationshipCount += 1;
+        }
+        subgraphCount += 1;
+    }
+
+    private long insertNode(AbstractNode abstractNode) {
+        MergeKey key = MergeKey.of(abstractNode);
+        String mergeKey = key == null ? null : key.getLabel() + "!" + key.getKey() + "=" + key.getValueString();
+        long id = names == null ? -1 : names.get(abstractNode.getName());
+        if (id < 0 && mergeKey != null) {
+            id = mergeKeys.get(mergeKey);
+        }
+        Label[] labels = toLabels(abstractNode.getLabels());
+        if (id < 0) {
+            id = inserter.createNode(toProperties(abstractNode.getProperties()), labels);
+            nodeCount += 1;
+        } else {
+            mergeNode(id, labels, abstractNode.getProperties());
+        }
+        if (names != null) {
+            names.put(abstractNode.getName(), id);
+        }
+        if (mergeKey != null) {
+            mergeKeys.put(mergeKey, id);
+        }
+        return id;
+    }
+
+    private void mergeNode(long id, Label[] labels, Map<String, Object> properties) {
+        if (labels.length > 0) {
+            Set<String> labelNames = new LinkedHashSet<>();
+            for (Label label : inserter.getNodeLabels(id)) {
+                labelNames.add(label.name());
+            }
+            boolean changed = false;
+            for (Label label : labels) {
+                changed |= labelNames.add(label.name());
+            }
+            if (changed) {
+                inserter.setNodeLabels(id, toLabels(labelNames));
+            }
+        }
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            if (entry.getValue() == null) {
+                if (inserter.nodeHasProperty(id, entry.getKey())) {
+                    inserter.removeNodeProperty(id, entry.getKey());
+                }
+            } else {
+                inserter.setNodeProperty(id, entry.getKey(), SubgraphLoader.toPropertyValue(entry.getValue()));
+            }
+        }
+    }
+
+    private static Label[] toLabels(Collection<String> names) {
+        Label[] labels = new Label[names.size()];
+        int i = 0;
+        for (String name : names) {
+            labels[i++] = DynamicLabel.label(name);
+        }
+        return labels;
+    }
+
+    private static Map<String, Object> toProperties(Map<String, Object> properties) {
+        Map<String, Object> converted = new HashMap<>();
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            if (entry.getValue() != null) {
+                converted.put(entry.getKey(), SubgraphLoader.toPropertyValue(entry.getValue()));
+            }
+        }
+        return converted;
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.Node;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The progress of a load with a load id, kept in the data directory so that
+ * a failed load can be resumed. As soon as each batch has committed, the
+ * names loaded by that batch are appended to a log and the subgraphs
+ * committed so far are recorded. A resumed load skips those subgraphs of
+ * its input and replays the names log into its name map.
+ *
+ * Batches loaded by several workers can commit in any order, so what is
+ * recorded is the length of the leading run of the input in which every
+ * batch has committed, followed by the range of input covered by each
+ * batch that has committed beyond it. Ranges that meet are recorded as one.
+ */
+class Checkpoint {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static Set<String> ACTIVE = new HashSet<>();
+
+    /**
+     * Return whether a load with this id is running, and so holds its
+     * checkpoint open.
+     */
+    static boolean isActive(String loadId) {
+        synchronized (ACTIVE) {
+            return ACTIVE.contains(loadId);
+        }
+    }
+
+    /**
+     * Open the checkpoint for a load id, continuing from its last recorded
+     * position if resuming or starting again from nothing if not.
+     */
+    static Checkpoint open(String loadId, boolean resume) throws IOException {
+        synchronized (ACTIVE) {
+            if (!ACTIVE.add(loadId)) {
+                throw new IllegalStateException("Load " + loadId + " is already running");
+            }
+        }
+        try {
+            File directory = new File(new File(Settings.DATA_DIR, "checkpoints"),
+                    "load-" + URLEncoder.encode(loadId, "UTF-8"));
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create directory " + directory);
+            }
+            Checkpoint checkpoint = new Checkpoint(loadId, directory);
+            if (resume) {
+                checkpoint.read();
+            } else {
+                checkpoint.clear();
+            }
+            checkpoint.namesLog = FileChannel.open(checkpoint.namesFile().toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            checkpoint.truncateNamesLog();
+            return checkpoint;
+        } catch (IOException | RuntimeException ex) {
+            synchronized (ACTIVE) {
+                ACTIVE.remove(loadId);
+            }
+            throw ex;
+        }
+    }
+
+    private final String loadId;
+    private final File directory;
+
+    private long subgraphs = 0;
+    private FileChannel namesLog = null;
+
+    // batches committed beyond the leading run, from the offset of each to the offset after it
+    private final TreeMap<Long, Long> ahead = new TreeMap<>();
+
+    // everything committed by earlier attempts, leading run included, in the same form
+    private final TreeMap<Long, Long> resumed = new TreeMap<>();
+    private long resumedCount = 0;
+
+    private Checkpoint(String loadId, File directory) {
+        this.loadId = loadId;
+        this.directory = directory;
+    }
+
+    /**
+     * Return the number of subgraphs committed by earlier attempts of this
+     * load, which a resumed load skips.
+     */
+    long getCommitted() {
+        return resumedCount;
+    }
+
+    /**
+     * Return the offset in the input of the first subgraph, at or after the
+     * given offset, that no earlier attempt of this load committed.
+     */
+    long firstPending(long offset) {
+        Map.Entry<Long, Long> range;
+        while ((range = resumed.floorEntry(offset)) != null && offset < range.getValue()) {
+            offset = range.getValue();
+        }
+        return offset;
+    }
+
+    /**
+     * Put every name recorded by earlier attempts of this load into a name
+     * map.
+     */
+    void replayNames(NameMap names) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(namesFile()), UTF8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                try {
+                    names.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+                } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+                    throw new IOException("Malformed names log " + namesFile());
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a committed batch, given the offset in the input of its first
+     * subgraph: first the names it loaded, if these are being kept, and then
+     * the input committed so far.
+     */
+    synchronized void committed(long offset, int batchSize, List<Map<String, Node>> results, boolean logNames)
+            throws IOException {
+        if (logNames) {
+            StringBuilder builder = new StringBuilder();
+            for (Map<String, Node> nodes : results) {
+                for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+                    builder.append(entry.getKey()).append('\t').append(entry.getValue().getId()).append('\n');
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(UTF8));
+            while (buffer.hasRemaining()) {
+                namesLog.write(buffer);
+            }
+            namesLog.force(false);
+        }
+        long start = offset;
+        long end = offset + batchSize;
+        Long next = ahead.remove(end);
+        if (next != null) {
+            end = next;
+        }
+        Map.Entry<Long, Long> previous = ahead.floorEntry(start);
+        if (previous != null && previous.getValue() == start) {
+            ahead.remove(previous.getKey());
+            start = previous.getKey();
+        }
+        if (start == subgraphs) {
+            subgraphs = end;
+        } else {
+            ahead.put(start, end);
+        }
+        StringBuilder builder = new StringBuilder().append(subgraphs).append('\n');
+        for (Map.Entry<Long, Long> range : ahead.entrySet()) {
+            builder.append(range.getKey()).append(' ').append(range.getValue()).append('\n');
+        }
+        File temp = new File(directory, "subgraphs.tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(builder.toString().getBytes(UTF8));
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), subgraphsFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Finish with this checkpoint, removing it if the load completed.
+     */
+    void close(boolean completed) throws IOException {
+        try {
+            namesLog.close();
+            if (completed) {
+                clear();
+                Files.delete(directory.toPath());
+            }
+        } finally {
+            synchronized (ACTIVE) {
+                ACTIVE.remove(loadId);
+            }
+        }
+    }
+
+    /**
+     * Cut the names log back to the end of its last complete line, dropping
+     * whatever was partly written by an attempt that failed mid-append, and
+     * position it for appending.
+     */
+    private void truncateNamesLog() throws IOException {
+        long end = namesLog.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (end > 0) {
+            long start = Math.max(end - buffer.capacity(), 0);
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (namesLog.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            int i = buffer.position() - 1;
+            while (i >= 0 && buffer.get(i) != '\n') {
+                i -= 1;
+            }
+            if (i >= 0) {
+                end = start + i + 1;
+                break;
+            }
+            end = start;
+        }
+        namesLog.truncate(end);
+        namesLog.position(end);
+    }
+
+    private void read() throws IOException {
+        File file = subgraphsFile();
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            String[] lines = new String(Files.readAllBytes(file.toPath()), UTF8).trim().split("\n");
+            subgraphs = Long.parseLong(lines[0]);
+            for (int i = 1; i < lines.length; i++) {
+                String[] range = lines[i].split(" ");
+                ahead.put(Long.parseLong(range[0]), Long.parseLong(range[1]));
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            throw new IOException("Malformed checkpoint " + file);
+        }
+        if (subgraphs > 0) {
+            resumed.put(0L, subgraphs);
+        }
+        resumed.putAll(ahead);
+        for (Map.Entry<Long, Long> range : resumed.entrySet()) {
+            resumedCount += range.getValue() - range.getKey();
+        }
+    }
+
+    private void clear() throws IOException {
+        Files.deleteIfExists(subgraphsFile().toPath());
+        Files.deleteIfExists(namesFile().toPath());
+        subgraphs = 0;
+        ahead.clear();
+    }
+
+    private File subgraphsFile() {
+        return new File(directory, "subgraphs");
+    }
+
+    private File namesFile() {
+        return new File(directory, "names");
+    }
+
+}
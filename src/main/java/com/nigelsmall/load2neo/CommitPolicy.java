@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+/**
+ * Decides when the transaction for the current batch should be committed.
+ * A batch is closed as soon as any one of its limits is reached; an entity
+ * or time limit of zero means that limit is not applied.
+ */
+class CommitPolicy {
+
+    private final int maxSubgraphs;
+    private final long maxEntities;
+    private final long maxMillis;
+
+    CommitPolicy(int maxSubgraphs, long maxEntities, long maxMillis) {
+        if (maxSubgraphs < 1) {
+            throw new IllegalArgumentException("batch_size must be positive");
+        }
+        if (maxEntities < 0) {
+            throw new IllegalArgumentException("batch_entities must not be negative");
+        }
+        if (maxMillis < 0) {
+            throw new IllegalArgumentException("batch_millis must not be negative");
+        }
+        this.maxSubgraphs = maxSubgraphs;
+        this.maxEntities = maxEntities;
+        this.maxMillis = maxMillis;
+    }
+
+    int getMaxSubgraphs() {
+        return maxSubgraphs;
+    }
+
+    long getMaxMillis() {
+        return maxMillis;
+    }
+
+    boolean isDue(int subgraphs, long entities, long millis) {
+        return subgraphs >= getMaxSubgraphs() ||
+                (maxEntities > 0 && entities >= maxEntities) ||
+                (maxMillis > 0 && millis >= maxMillis);
+    }
+
+    /**
+     * Called after each batch has been committed, with the time taken by
+     * the commit itself.
+     */
+    void committed(long latency) {
+        // a fixed policy does not change
+    }
+
+}
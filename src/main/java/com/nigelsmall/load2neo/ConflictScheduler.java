@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Orders batches that are being loaded in parallel so that two batches
+ * merging any of the same unique nodes never run at the same time.
+ *
+ * Batches are registered in input order and may only start once no
+ * earlier batch still registered shares a merge key with them. Batches
+ * with disjoint merge keys run concurrently while conflicting batches run
+ * one after another in input order, much as they would in a sequential
+ * load. As a batch only ever waits for earlier batches, and those are
+ * always handed to the worker pool first, waiting cannot deadlock.
+ */
+class ConflictScheduler {
+
+    private final Map<Long, Set<MergeKey>> pending = new LinkedHashMap<>();
+
+    private long nextTicket = 0;
+
+    /**
+     * Register a batch's merge keys, returning a ticket for use with
+     * {@link #start(long)} and {@link #finish(long)}.
+     */
+    synchronized long register(Set<MergeKey> keys) {
+        long ticket = nextTicket++;
+        pending.put(ticket, keys);
+        return ticket;
+    }
+
+    /**
+     * Wait until no earlier batch conflicts with this one.
+     */
+    synchronized void start(long ticket) throws InterruptedException {
+        while (hasConflict(ticket)) {
+            wait();
+        }
+    }
+
+    synchronized void finish(long ticket) {
+        pending.remove(ticket);
+        notifyAll();
+    }
+
+    private boolean hasConflict(long ticket) {
+        Set<MergeKey> keys = pending.get(ticket);
+        if (keys.isEmpty()) {
+            return false;
+        }
+        Iterator<Map.Entry<Long, Set<MergeKey>>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Set<MergeKey>> entry = iterator.next();
+            if (entry.getKey() == ticket) {
+                return false;
+            }
+            if (!Collections.disjoint(keys, entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+/**
+ * Runs a bulk delete in the background.
+ */
+class DeleteJob extends Job {
+
+    private final BulkDelete delete;
+
+    DeleteJob(String id, BulkDelete delete) {
+        super(id);
+        this.delete = delete;
+    }
+
+    @Override
+    void execute() throws Exception {
+        delete.run(new BulkDelete.Listener() {
+            @Override
+            public void progress(BulkDelete delete) { }
+        });
+    }
+
+    @Override
+    void stop() {
+        delete.cancel();
+    }
+
+    @Override
+    String getProgressJson() {
+        return delete.toJson();
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+/**
+ * Running totals for a delete, which may be shared between threads.
+ */
+class DeleteProgress {
+
+    private final long startTime = System.currentTimeMillis();
+
+    private long relationships = 0;
+    private long nodes = 0;
+    private long nodesKept = 0;
+
+    synchronized void deleted(long relationships, long nodes) {
+        this.relationships += relationships;
+        this.nodes += nodes;
+    }
+
+    /**
+     * Count nodes that were found but deliberately left in place.
+     */
+    synchronized void kept(long nodes) {
+        this.nodesKept += nodes;
+    }
+
+    synchronized long getNodesKept() {
+        return nodesKept;
+    }
+
+    synchronized long getRelationships() {
+        return relationships;
+    }
+
+    synchronized long getNodes() {
+        return nodes;
+    }
+
+    long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+}
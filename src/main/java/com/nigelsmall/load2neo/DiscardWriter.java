@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.io.Writer;
+
+/**
+ * A writer that throws away everything written to it, for loads that run
+ * in the background with nobody to read the node ids they produce.
+ */
+class DiscardWriter extends Writer {
+
+    @Override
+    public void write(char[] buffer, int offset, int length) { }
+
+    @Override
+    public void flush() { }
+
+    @Override
+    public void close() { }
+
+}
@@ -35,6 +35,10 @@ public class DiscoveryResource {
         String index = "{\n" +
                 "    \"all_the_things\": \"" + absolutePath + "all_the_things\",\n" +
                 "    \"geoff_loader\": \"" + absolutePath + "load/geoff\",\n" +
+                "    \"jobs\": \"" + absolutePath + "jobs\",\n" +
+                "    \"merge_cache\": \"" + absolutePath + "load/merge_cache\",\n" +
+                "    \"spool\": \"" + absolutePath + "spool\",\n" +
+                "    \"watermarks\": \"" + absolutePath + "watermarks\",\n" +
                 "    \"load2neo_version\": \"0.6.0\"\n" +
         "}\n";
         return Response.status(Response.Status.OK).entity(index).build();
@@ -0,0 +1,722 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.AbstractRelationship;
+import com.nigelsmall.geoff.Subgraph;
+import com.nigelsmall.geoff.reader.GeoffReader;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * A single Geoff load, run as three overlapping stages: a parser thread
+ * reads subgraphs into a bounded queue, a loader thread writes them to the
+ * database in batches and the calling thread writes the node ids of each
+ * committed batch to the response.
+ *
+ * With a parallelism greater than one, the loader thread only gathers
+ * batches and hands each to a pool of workers, each loading its batch in
+ * a transaction of its own. Results are still written in input order.
+ * Batches that merge any of the same unique nodes are kept apart by a
+ * {@link ConflictScheduler}.
+ *
+ * With ordered locks, each batch is gathered in full and, before it is
+ * loaded, write locks are taken on the existing nodes it merges in merge
+ * key order, so that every loader acquires those locks in the same order.
+ *
+ * With a name map, a subgraph can refer by name to nodes loaded by any
+ * earlier subgraph of the same load. As a name only becomes visible once
+ * the batch that loaded it has committed, this requires batches to be
+ * loaded one at a time.
+ *
+ * In create mode, every node is created without looking for an existing
+ * one to merge with, and batches are therefore never held back by the
+ * conflict scheduler or locked in advance.
+ *
+ * In two-pass mode, each batch is gathered in full and its nodes are loaded
+ * and committed before any of its relationships. The relationships are
+ * then sorted by start node and created in partitions that share no
+ * node, one transaction each, spread across the workers. Relationships
+ * joining nodes of two partitions are created afterwards in a final
+ * transaction. A batch is then no longer atomic, as its nodes may be
+ * committed without its relationships.
+ *
+ * With a dense threshold, relationships attached to any node with at
+ * least that many relationships in the batch are kept out of the
+ * partitions and created together in one transaction on a dedicated
+ * thread, so that the other partitions never wait on the locks of those
+ * dense nodes. Setting a dense threshold implies two-pass mode.
+ *
+ * A batch that deadlocks, typically against another load, is rolled back
+ * and loaded again from its parsed subgraphs as the retry policy allows.
+ *
+ * With a load id, each batch is recorded in the load's checkpoint as soon
+ * as it has committed, before its results are written, and the parser
+ * skips the subgraphs that an earlier attempt of the same load has
+ * already committed. The checkpoint is held only while the load runs.
+ *
+ * Neo4j transactions are bound to the thread that began them, and
+ * interrupting a thread that is writing to the store can close its files,
+ * so stages are never interrupted; instead they poll their queues and give
+ * up once the load has been cancelled.
+ */
+class GeoffLoad {
+
+    private final static ExecutorService STAGES = Executors.newCachedThreadPool(new NamedThreadFactory("load2neo-stage"));
+
+    private final static long POLL_MILLIS = 100;
+
+    private final GraphDatabaseService database;
+    private final CommitPolicy policy;
+    private final RetryPolicy retryPolicy;
+    private final LoadSummary summary = new LoadSummary();
+
+    private int parallelism = 1;
+    private boolean orderedLocks = false;
+    private NameMap names = null;
+    private MergeFilter mergeFilter = null;
+    private boolean createOnly = false;
+    private boolean twoPass = false;
+    private int denseThreshold = 0;
+    private Provenance provenance = null;
+    private String checkpointId = null;
+    private boolean resume = false;
+    private Checkpoint checkpoint = null;
+
+    private final BlockingQueue<Subgraph> subgraphs = new ArrayBlockingQueue<>(Settings.QUEUE_SIZE);
+    private BlockingQueue<Future<Batch>> batches = new ArrayBlockingQueue<>(2);
+
+    private volatile boolean cancelled = false;
+
+    GeoffLoad(GraphDatabaseService database, CommitPolicy policy, RetryPolicy retryPolicy) {
+        this.database = database;
+        this.policy = policy;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Set the number of batches loaded at once. Values above the server-wide
+     * maximum are clamped to it.
+     */
+    void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        parallelism = Math.min(parallelism, Settings.MAX_PARALLELISM);
+        if (parallelism > 1 && names != null) {
+            throw new IllegalArgumentException("shared names cannot be used with parallelism");
+        }
+        this.parallelism = parallelism;
+        this.batches = new ArrayBlockingQueue<>(2 * parallelism);
+    }
+
+    void setOrderedLocks(boolean orderedLocks) {
+        this.orderedLocks = orderedLocks;
+    }
+
+    void setNameMap(NameMap names) {
+        if (parallelism > 1 && names != null) {
+            throw new IllegalArgumentException("shared names cannot be used with parallelism");
+        }
+        this.names = names;
+    }
+
+    void setMergeFilter(MergeFilter mergeFilter) {
+        this.mergeFilter = mergeFilter;
+    }
+
+    void setCreateOnly(boolean createOnly) {
+        this.createOnly = createOnly;
+    }
+
+    void setProvenance(Provenance provenance) {
+        this.provenance = provenance;
+    }
+
+    /**
+     * Keep a checkpoint under a load id, resuming from where an earlier
+     * attempt left off if asked to. The checkpoint is opened when the load
+     * starts to run.
+     */
+    void setCheckpoint(String loadId, boolean resume) {
+        this.checkpointId = loadId;
+        this.resume = resume;
+    }
+
+    void setTwoPass(boolean twoPass) {
+        this.twoPass = twoPass;
+    }
+
+    void setDenseThreshold(int denseThreshold) {
+        if (denseThreshold < 0) {
+            throw new IllegalArgumentException("dense_threshold must not be negative");
+        }
+        this.denseThreshold = denseThreshold;
+    }
+
+    private boolean isTwoPass() {
+        return twoPass || denseThreshold > 0;
+    }
+
+    LoadSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Stop the load once the batches in progress have finished; batches
+     * queued for a worker but not yet started are never loaded. The load
+     * then fails with a CancellationException.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Run the load to completion, writing the node ids of each subgraph to
+     * the writer in input order. Any checkpoint is opened first, which fails
+     * with an IllegalStateException if the same load id is already running,
+     * and is closed once the load has finished, and removed if it succeeded.
+     * Any shared name map is closed then too.
+     */
+    void run(GeoffReader reader, Writer writer) throws IOException {
+        boolean completed = false;
+        try {
+            if (checkpointId != null) {
+                checkpoint = Checkpoint.open(checkpointId, resume);
+            }
+            runStages(reader, writer);
+            completed = true;
+        } finally {
+            try {
+                if (checkpoint != null) {
+                    checkpoint.close(completed);
+                }
+            } finally {
+                if (names != null) {
+                    names.close();
+                }
+            }
+        }
+    }
+
+    private void runStages(final GeoffReader reader, Writer writer) throws IOException {
+        long skip = checkpoint == null ? 0 : checkpoint.getCommitted();
+        if (skip > 0 && names != null) {
+            checkpoint.replayNames(names);
+        }
+        summary.skipped(skip);
+        final Future<?> parser = STAGES.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                // pass on only the subgraphs that no earlier attempt committed
+                for (long i = 0; !cancelled && reader.hasMore(); i++) {
+                    Subgraph subgraph = reader.readSubgraph();
+                    if (firstPending(i) == i) {
+                        put(subgraphs, subgraph);
+                    }
+                }
+                return null;
+            }
+        });
+        Future<?> loader = STAGES.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    if (parallelism == 1 && !orderedLocks && !isTwoPass()) {
+                        load(parser);
+                    } else {
+                        dispatch(parser);
+                    }
+                } catch (Throwable th) {
+                    cancelled = true;
+                    throw th;
+                }
+                return null;
+            }
+        });
+        try {
+            Future<Batch> batch;
+            while ((batch = take(batches, loader)) != null) {
+                Batch committed = await(batch);
+                for (Map<String, Node> nodes : committed.getResults()) {
+                    writeNodes(writer, nodes);
+                }
+                writer.flush();
+            }
+        } catch (IOException | RuntimeException ex) {
+            cancelled = true;
+            try {
+                // report the loader's own failure in preference to ours
+                await(loader);
+            } catch (CancellationException ignored) {
+                // the loader stopped because we did
+            }
+            throw ex;
+        }
+        await(loader);
+    }
+
+    /**
+     * Load subgraphs on this thread as they arrive, committing whenever the
+     * commit policy says so.
+     */
+    private void load(Future<?> parser) throws Exception {
+        long offset = firstPending(0);
+        Subgraph subgraph;
+        while ((subgraph = take(subgraphs, parser)) != null) {
+            Batch batch = new Batch(offset);
+            SubgraphLoader loader = newLoader();
+            try {
+                long commitTime;
+                Transaction tx = database.beginTx();
+                try {
+                    // commit as soon as the batch is due, rather than waiting on input with the transaction open
+                    do {
+                        batch.add(subgraph);
+                        batch.addResult(loader.load(subgraph));
+                    } while (!batch.isDue(policy) && !reachesCommitted(batch) &&
+                            (subgraph = take(subgraphs, parser, batch.getDeadline(policy))) != null);
+                    if (parser.isDone()) {
+                        // a parse failure rolls back the batch it occurred in
+                        await(parser);
+                    }
+                    tx.success();
+                    commitTime = System.currentTimeMillis();
+                } finally {
+                    tx.close();
+                }
+                loader.finish(true);
+                committed(batch, System.currentTimeMillis() - commitTime);
+                recordCheckpoint(batch);
+            } catch (RuntimeException ex) {
+                // the batch so far has been rolled back, so load it again as a whole
+                loader.finish(false);
+                retry(ex, 1);
+                loadBatch(batch, 2);
+            }
+            offset = firstPending(offset + batch.size());
+            put(batches, completed(batch));
+        }
+        await(parser);
+    }
+
+    /**
+     * Gather subgraphs into batches and load each batch as a whole, on a
+     * worker if there are several or on this thread otherwise.
+     */
+    private void dispatch(Future<?> parser) throws Exception {
+        long offset = firstPending(0);
+        ExecutorService workers = null;
+        ExecutorService denseWorker = null;
+        final ConflictScheduler scheduler = new ConflictScheduler();
+        if (parallelism > 1) {
+            workers = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory("load2neo-worker"));
+        }
+        if (denseThreshold > 0) {
+            denseWorker = Executors.newSingleThreadExecutor(new NamedThreadFactory("load2neo-dense"));
+        }
+        try {
+            Subgraph subgraph;
+            while ((subgraph = take(subgraphs, parser)) != null) {
+                final Batch batch = new Batch(offset);
+                // hand the batch over as soon as it is due, rather than holding it back for the next subgraph
+                do {
+                    batch.add(subgraph);
+                } while (!batch.isDue(policy) && !reachesCommitted(batch) &&
+                        (subgraph = take(subgraphs, parser, batch.getDeadline(policy))) != null);
+                offset = firstPending(offset + batch.size());
+                if (parser.isDone()) {
+                    // don't load a batch that a parse failure has cut short
+                    await(parser);
+                }
+                if (isTwoPass()) {
+                    put(batches, completed(loadTwoPass(batch, workers, denseWorker)));
+                    continue;
+                } else if (workers == null) {
+                    put(batches, completed(loadBatch(batch, 1)));
+                    continue;
+                }
+                final long ticket = scheduler.register(createOnly ?
+                        Collections.<MergeKey>emptySet() : batch.getMergeKeys());
+                put(batches, workers.submit(new Callable<Batch>() {
+                    @Override
+                    public Batch call() throws Exception {
+                        try {
+                            checkCancelled();
+                            scheduler.start(ticket);
+                            return loadBatch(batch, 1);
+                        } finally {
+                            scheduler.finish(ticket);
+                        }
+                    }
+                }));
+            }
+            await(parser);
+        } catch (Exception | Error ex) {
+            // batches already handed to the workers must not commit now
+            cancelled = true;
+            throw ex;
+        } finally {
+            // let batches already started finish before the load ends and its checkpoint is closed
+            if (workers != null) {
+                workers.shutdown();
+                awaitTermination(workers);
+            }
+            if (denseWorker != null) {
+                denseWorker.shutdown();
+                awaitTermination(denseWorker);
+            }
+        }
+    }
+
+    /**
+     * Wait for an executor that has been shut down to finish the tasks it
+     * has started. Batches that have not started are skipped once the load
+     * is cancelled, so this waits at most for the batches in progress.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Load a whole batch in a single transaction, retrying on deadlock.
+     */
+    private Batch loadBatch(final Batch batch, int attempt) throws Exception {
+        withRetries(new Callable<Batch>() {
+            @Override
+            public Batch call() {
+                return loadBatchOnce(batch, false);
+            }
+        }, attempt);
+        recordCheckpoint(batch);
+        return batch;
+    }
+
+    private Batch loadBatchOnce(Batch batch, boolean nodesOnly) {
+        SubgraphLoader loader = newLoader();
+        batch.clearResults();
+        boolean success = false;
+        long commitTime;
+        try {
+            Transaction tx = database.beginTx();
+            try {
+                if (orderedLocks && !createOnly) {
+                    lockMergedNodes(tx, batch);
+                }
+                for (Subgraph subgraph : batch.getSubgraphs()) {
+                    batch.addResult(nodesOnly ? loader.loadNodes(subgraph) : loader.load(subgraph));
+                }
+                tx.success();
+                commitTime = System.currentTimeMillis();
+            } finally {
+                tx.close();
+            }
+            success = true;
+        } finally {
+            loader.finish(success);
+        }
+        committed(batch, System.currentTimeMillis() - commitTime);
+        return batch;
+    }
+
+    /**
+     * Load the nodes of a batch in one transaction and then its
+     * relationships in partitions that share no node, each partition in a
+     * transaction of its own and on a worker if there are any. Any
+     * relationships of dense nodes form one further partition, loaded on
+     * the dense worker. Relationships joining nodes of different partitions
+     * are created last, in a transaction of their own.
+     */
+    private Batch loadTwoPass(final Batch batch, ExecutorService workers, ExecutorService denseWorker)
+            throws Exception {
+        withRetries(new Callable<Batch>() {
+            @Override
+            public Batch call() {
+                return loadBatchOnce(batch, true);
+            }
+        }, 1);
+        RelationshipPass pass = new RelationshipPass();
+        List<Map<String, Node>> results = batch.getResults();
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String, Node> nodes = results.get(i);
+            for (AbstractRelationship relationship : batch.getSubgraphs().get(i).getRelationships()) {
+                pass.add(nodes.get(relationship.getStartNode().getName()).getId(),
+                        nodes.get(relationship.getEndNode().getName()).getId(), relationship);
+            }
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        List<RelationshipPass.Entry> dense = Collections.emptyList();
+        if (denseWorker != null) {
+            dense = pass.removeDense(denseThreshold);
+            if (!dense.isEmpty()) {
+                summary.denseRelationships(dense.size());
+                futures.add(denseWorker.submit(partitionTask(dense)));
+            }
+        }
+        for (List<RelationshipPass.Entry> partition : pass.partition(parallelism, dense)) {
+            Callable<Void> task = partitionTask(partition);
+            if (workers == null) {
+                task.call();
+            } else {
+                futures.add(workers.submit(task));
+            }
+        }
+        // wait for every partition before reporting the first failure, if any
+        Exception failure = null;
+        for (Future<?> future : futures) {
+            try {
+                await(future);
+            } catch (IOException | RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (!pass.getCrossing().isEmpty()) {
+            partitionTask(pass.getCrossing()).call();
+        }
+        recordCheckpoint(batch);
+        return batch;
+    }
+
+    private Callable<Void> partitionTask(final List<RelationshipPass.Entry> partition) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                checkCancelled();
+                return withRetries(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try (Transaction tx = database.beginTx()) {
+                            RelationshipPass.load(database, partition, provenance);
+                            tx.success();
+                        }
+                        return null;
+                    }
+                }, 1);
+            }
+        };
+    }
+
+    /**
+     * Carry out some work, retrying it on deadlock, given the number of
+     * the first attempt to be made.
+     */
+    private <T> T withRetries(Callable<T> work, int attempt) throws Exception {
+        while (true) {
+            try {
+                return work.call();
+            } catch (RuntimeException ex) {
+                retry(ex, attempt);
+                attempt += 1;
+            }
+        }
+    }
+
+    private SubgraphLoader newLoader() {
+        return new SubgraphLoader(database, names, MergeCache.getInstance(), mergeFilter, createOnly, provenance);
+    }
+
+    /**
+     * Take write locks on the existing nodes merged by a batch, in merge
+     * key order, so that loaders merging the same existing nodes cannot
+     * deadlock on them. Nodes that do not exist yet cannot be locked in
+     * advance: two transactions merging the same new key may both create
+     * it, and ordered locking does nothing to prevent that.
+     */
+    private void lockMergedNodes(Transaction tx, Batch batch) {
+        List<MergeKey> keys = new ArrayList<>(batch.getMergeKeys());
+        Collections.sort(keys);
+        for (MergeKey key : keys) {
+            try (ResourceIterator<Node> nodes = database.findNodesByLabelAndProperty(
+                    DynamicLabel.label(key.getLabel()), key.getKey(), key.getValue()).iterator()) {
+                while (nodes.hasNext()) {
+                    tx.acquireWriteLock(nodes.next());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rethrow the exception from a failed attempt unless it can be
+     * retried, in which case wait for the backoff period.
+     */
+    private void retry(RuntimeException ex, int attempt) throws InterruptedException {
+        if (cancelled || !retryPolicy.isRetryable(ex, attempt)) {
+            throw ex;
+        }
+        summary.retried();
+        retryPolicy.backoff(attempt);
+    }
+
+    private void committed(Batch batch, long latency) {
+        policy.committed(latency);
+        summary.batchCommitted(batch.size(), batch.getNodeCount(), batch.getRelationshipCount(),
+                policy.getMaxSubgraphs());
+    }
+
+    /**
+     * Return the offset in the input of the first subgraph, at or after the
+     * given offset, still to be loaded; a resumed load skips the subgraphs
+     * that an earlier attempt committed.
+     */
+    private long firstPending(long offset) {
+        return checkpoint == null ? offset : checkpoint.firstPending(offset);
+    }
+
+    /**
+     * Return whether the subgraph after a batch was committed by an earlier
+     * attempt, in which case the batch must end so that it covers a single
+     * run of the input.
+     */
+    private boolean reachesCommitted(Batch batch) {
+        long end = batch.getOffset() + batch.size();
+        return firstPending(end) != end;
+    }
+
+    /**
+     * Record a batch that has been committed in full in the checkpoint, if
+     * there is one.
+     */
+    private void recordCheckpoint(Batch batch) throws IOException {
+        if (checkpoint != null) {
+            checkpoint.committed(batch.getOffset(), batch.size(), batch.getResults(), names != null);
+        }
+    }
+
+    private static Future<Batch> completed(final Batch batch) {
+        FutureTask<Batch> future = new FutureTask<>(new Callable<Batch>() {
+            @Override
+            public Batch call() {
+                return batch;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Load cancelled");
+        }
+    }
+
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkCancelled();
+        }
+    }
+
+    /**
+     * Take the next item from a queue, returning null once the stage
+     * feeding it has finished and the queue has been drained.
+     */
+    private <T> T take(BlockingQueue<T> queue, Future<?> producer) throws IOException {
+        return take(queue, producer, Long.MAX_VALUE);
+    }
+
+    /**
+     * Take the next item from a queue, returning null once the stage
+     * feeding it has finished and the queue has been drained, or once the
+     * deadline has passed with nothing to take.
+     */
+    private <T> T take(BlockingQueue<T> queue, Future<?> producer, long deadline) throws IOException {
+        while (true) {
+            long wait = Math.min(POLL_MILLIS, deadline - System.currentTimeMillis());
+            if (wait <= 0) {
+                return queue.poll();
+            }
+            T item;
+            try {
+                item = queue.poll(wait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException("Interrupted while waiting for load stage");
+            }
+            if (item != null) {
+                return item;
+            } else if (cancelled) {
+                throw new CancellationException("Load cancelled");
+            } else if (producer.isDone()) {
+                // the producer has queued its last item, if any
+                return queue.poll();
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> stage) throws IOException {
+        try {
+            return stage.get();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while waiting for load stage");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private static void writeNodes(Writer writer, Map<String, Node> nodes) throws IOException {
+        writer.write("{");
+        String separator = "";
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            Node node = entry.getValue();
+            writer.write(separator);
+            writer.write('"');
+            writer.write(entry.getKey());
+            writer.write('"');
+            writer.write(':');
+            writer.write(Long.toString(node.getId()));
+            separator = ",";
+        }
+        writer.write("}\n");
+    }
+
+}
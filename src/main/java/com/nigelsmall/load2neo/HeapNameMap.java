@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class HeapNameMap implements NameMap {
+
+    private final Map<String, Long> ids = new HashMap<>();
+
+    @Override
+    public synchronized long get(String name) {
+        Long id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public synchronized void put(String name, long id) {
+        ids.put(name, id);
+    }
+
+    @Override
+    public synchronized void close() {
+        ids.clear();
+    }
+
+}
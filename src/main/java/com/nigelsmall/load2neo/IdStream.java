@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Entity ids in batches, produced on a thread of their own so that one or
+ * more deleters can work through each batch while the next is found. Ids
+ * come either from a scan through the public graph API, in a read-only
+ * transaction held open for the length of the scan, or from a plain range
+ * of ids, some of which may not be in use. Only a few batches are ever
+ * held in memory at once.
+ */
+abstract class IdStream {
+
+    private final static ExecutorService PRODUCERS = Executors.newCachedThreadPool(new NamedThreadFactory("load2neo-scan"));
+
+    private final static long POLL_MILLIS = 100;
+    private final static int QUEUE_SIZE = 4;
+
+    /**
+     * Stream the ids of every node.
+     */
+    static IdStream allNodes(final GraphDatabaseService database, int batchSize) {
+        IdStream stream = new IdStream(batchSize) {
+            @Override
+            void produce() throws InterruptedException {
+                try (Transaction tx = database.beginTx()) {
+                    for (Node node : GlobalGraphOperations.at(database).getAllNodes()) {
+                        add(node.getId());
+                    }
+                    tx.success();
+                }
+            }
+        };
+        return stream.start();
+    }
+
+    /**
+     * Stream the ids of every node with a given label, found by label scan.
+     */
+    static IdStream nodesWithLabel(final GraphDatabaseService database, final Label label, int batchSize) {
+        IdStream stream = new IdStream(batchSize) {
+            @Override
+            void produce() throws InterruptedException {
+                try (Transaction tx = database.beginTx()) {
+                    try (ResourceIterator<Node> nodes = GlobalGraphOperations.at(database).getAllNodesWithLabel(label).iterator()) {
+                        while (nodes.hasNext()) {
+                            add(nodes.next().getId());
+                        }
+                    }
+                    tx.success();
+                }
+            }
+        };
+        return stream.start();
+    }
+
+    /**
+     * Stream the ids of every relationship, or only of those of a given
+     * type if that is not null. With no index by type, finding the
+     * relationships of one type means visiting every relationship.
+     */
+    static IdStream allRelationships(final GraphDatabaseService database, final RelationshipType type,
+                                     int batchSize) {
+        IdStream stream = new IdStream(batchSize) {
+            @Override
+            void produce() throws InterruptedException {
+                try (Transaction tx = database.beginTx()) {
+                    for (Relationship relationship : GlobalGraphOperations.at(database).getAllRelationships()) {
+                        if (type == null || relationship.isType(type)) {
+                            add(relationship.getId());
+                        }
+                    }
+                    tx.success();
+                }
+            }
+        };
+        return stream.start();
+    }
+
+    /**
+     * Stream the ids from {@code from} up to but excluding {@code to}.
+     */
+    static IdStream range(final long from, final long to, int batchSize) {
+        IdStream stream = new IdStream(batchSize) {
+            @Override
+            void produce() throws InterruptedException {
+                for (long id = from; id < to; id++) {
+                    add(id);
+                }
+            }
+        };
+        stream.remaining = Math.max(to - from, 0);
+        return stream.start();
+    }
+
+    private final int batchSize;
+    private final BlockingQueue<long[]> batches = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    private long[] batch;
+    private int size = 0;
+    private Future<?> producer;
+    private volatile boolean closed = false;
+    private volatile long remaining = -1;
+
+    private IdStream(int batchSize) {
+        this.batchSize = batchSize;
+        this.batch = new long[batchSize];
+    }
+
+    /**
+     * Produce every id of the stream by calling {@link #add(long)}.
+     */
+    abstract void produce() throws InterruptedException;
+
+    void add(long id) throws InterruptedException {
+        batch[size++] = id;
+        if (size == batchSize) {
+            put(batch);
+            batch = new long[batchSize];
+            size = 0;
+        }
+    }
+
+    /**
+     * Return the number of ids not yet taken from a range, or -1 for a
+     * scan, for which this is not known in advance.
+     */
+    long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Take the next batch of ids, waiting for one if need be, or return
+     * null once the stream has ended. A failure of the scan is rethrown.
+     * Several threads may take batches from one stream.
+     */
+    long[] next() throws InterruptedException {
+        while (true) {
+            long[] ids = batches.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (ids == null && producer.isDone()) {
+                // the producer has queued its last batch, if any
+                ids = batches.poll();
+                if (ids == null) {
+                    rethrowFailure();
+                    return null;
+                }
+            }
+            if (ids != null) {
+                if (remaining >= 0) {
+                    synchronized (this) {
+                        remaining = Math.max(remaining - ids.length, 0);
+                    }
+                }
+                return ids;
+            }
+        }
+    }
+
+    /**
+     * Stop producing ids, for a stream that will not be read to the end.
+     */
+    void close() {
+        closed = true;
+    }
+
+    private IdStream start() {
+        producer = PRODUCERS.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                produce();
+                if (size > 0) {
+                    put(Arrays.copyOf(batch, size));
+                }
+                return null;
+            }
+        });
+        return this;
+    }
+
+    private void put(long[] ids) throws InterruptedException {
+        do {
+            if (closed) {
+                throw new CancellationException("Id stream closed");
+            }
+        } while (!batches.offer(ids, POLL_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private void rethrowFailure() throws InterruptedException {
+        try {
+            producer.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+/**
+ * A long-running piece of work run in the background by the job registry,
+ * so that its progress can be polled and the work cancelled without holding
+ * an HTTP connection open for its whole lifetime.
+ */
+abstract class Job implements Runnable {
+
+    enum State { PENDING, RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    private final String id;
+    private final long createTime = System.currentTimeMillis();
+
+    private volatile State state = State.PENDING;
+    private volatile boolean cancelRequested = false;
+    private volatile String error = null;
+    private volatile long endTime = 0;
+
+    Job(String id) {
+        this.id = id;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    boolean isFinished() {
+        return endTime != 0;
+    }
+
+    /**
+     * Run the job. A job cancelled before it starts is still executed, so
+     * that it can release whatever it holds, but should stop at once.
+     */
+    @Override
+    public final void run() {
+        try {
+            runInline();
+        } catch (Throwable ex) {
+            // already recorded as the job's error
+        }
+    }
+
+    /**
+     * Run the job in the calling thread, recording its outcome as for a
+     * background job but also passing any failure on to the caller.
+     */
+    final void runInline() throws Exception {
+        state = State.RUNNING;
+        try {
+            execute();
+            state = cancelRequested ? State.CANCELLED : State.COMPLETED;
+        } catch (Throwable ex) {
+            error = ex.toString();
+            state = cancelRequested ? State.CANCELLED : State.FAILED;
+            throw ex;
+        } finally {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Ask the job to stop. Work already committed is kept; the job finishes
+     * at the next point at which it can stop safely.
+     */
+    void cancel() {
+        cancelRequested = true;
+        stop();
+    }
+
+    abstract void execute() throws Exception;
+
+    abstract void stop();
+
+    /**
+     * Job-specific progress, as a JSON object.
+     */
+    abstract String getProgressJson();
+
+    String toJson() {
+        long elapsed = (isFinished() ? endTime : System.currentTimeMillis()) - createTime;
+        return "{" +
+                "\"id\":" + quote(id) + "," +
+                "\"state\":" + quote(state.name().toLowerCase()) + "," +
+                "\"elapsed_ms\":" + elapsed + "," +
+                "\"progress\":" + getProgressJson() + "," +
+                "\"error\":" + (error == null ? "null" : quote(error)) +
+                "}";
+    }
+
+    static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                builder.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                builder.append(String.format("\\u%04x", (int) ch));
+            } else {
+                builder.append(ch);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide register of background jobs. Finished jobs are kept so that
+ * their outcome can still be read, up to `load2neo.job_history` of them,
+ * after which the oldest finished jobs are forgotten.
+ */
+class JobRegistry {
+
+    private final static JobRegistry INSTANCE = new JobRegistry(Settings.JOB_HISTORY);
+
+    static JobRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new NamedThreadFactory("load2neo-job"));
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final int history;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+
+    JobRegistry(int history) {
+        this.history = history;
+    }
+
+    String nextId() {
+        return Long.toString(nextId.getAndIncrement());
+    }
+
+    synchronized void submit(Job job) {
+        register(job);
+        executor.execute(job);
+    }
+
+    /**
+     * Track a job that the caller will run itself.
+     */
+    synchronized void register(Job job) {
+        forgetFinished();
+        jobs.put(job.getId(), job);
+    }
+
+    synchronized Job get(String id) {
+        return jobs.get(id);
+    }
+
+    synchronized String toJson() {
+        StringBuilder builder = new StringBuilder("[");
+        String separator = "";
+        for (Job job : jobs.values()) {
+            builder.append(separator).append(job.toJson());
+            separator = ",";
+        }
+        return builder.append("]").toString();
+    }
+
+    private void forgetFinished() {
+        int finished = 0;
+        for (Job job : jobs.values()) {
+            if (job.isFinished()) {
+                finished += 1;
+            }
+        }
+        Iterator<Job> iterator = jobs.values().iterator();
+        while (finished > history && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+                finished -= 1;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.net.URI;
+
+@Path("/jobs")
+public class JobResource {
+
+    public JobResource() { }
+
+    @GET
+    @Produces("application/json")
+    public Response getJobs() {
+        return Response.status(Response.Status.OK).entity(JobRegistry.getInstance().toJson() + "\n").build();
+    }
+
+    @GET
+    @Path("/{id}")
+    @Produces("application/json")
+    public Response getJob(@PathParam("id") String id) {
+        Job job = JobRegistry.getInstance().get(id);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.status(Response.Status.OK).entity(job.toJson() + "\n").build();
+    }
+
+    @DELETE
+    @Path("/{id}")
+    @Produces("application/json")
+    public Response cancelJob(@PathParam("id") String id) {
+        Job job = JobRegistry.getInstance().get(id);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        job.cancel();
+        return Response.status(Response.Status.ACCEPTED).entity(job.toJson() + "\n").build();
+    }
+
+    /**
+     * Start a job in the background and return a 202 response pointing at
+     * the job's status resource.
+     */
+    static Response submit(UriInfo info, Job job) {
+        JobRegistry.getInstance().submit(job);
+        URI location = info.getBaseUriBuilder().path(JobResource.class).path(job.getId()).build();
+        return Response.status(Response.Status.ACCEPTED).location(location)
+                .entity("{\"job\":" + Job.quote(location.toString()) + "}\n").build();
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Deletes everything created by one load, found through the provenance
+ * indexes: first its relationships, then its nodes. Relationships that
+ * other loads have attached to the load's nodes are never deleted; a node
+ * that still has any is kept and reported as such. Nodes that the load
+ * merged with existing nodes are left in place, along with any labels and
+ * properties the load added to them.
+ */
+class LoadDelete extends BulkDelete {
+
+    private final String loadId;
+
+    LoadDelete(BatchDeleter deleter, RetryPolicy retryPolicy, String loadId) {
+        super(deleter, retryPolicy);
+        this.loadId = loadId;
+    }
+
+    @Override
+    void run(Listener listener) throws IOException {
+        long lastProgress = System.currentTimeMillis();
+        try {
+            for (final boolean nodes : new boolean[] {false, true}) {
+                long more = 1;
+                while (more > 0 && !cancelled) {
+                    more = runStep(new Step() {
+                        @Override
+                        public long run() {
+                            boolean deleted = nodes ? deleter.deleteLoadNodes(loadId) : deleter.deleteLoadRelationships(loadId);
+                            return deleted ? 1 : 0;
+                        }
+                    });
+                    long now = System.currentTimeMillis();
+                    if (now - lastProgress >= PROGRESS_MILLIS) {
+                        listener.progress(this);
+                        lastProgress = now;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while deleting");
+        } finally {
+            MergeCache.getInstance().clear();
+        }
+        listener.progress(this);
+    }
+
+    @Override
+    void appendJson(StringBuilder builder) {
+        builder.append("\"load_id\":").append(Job.quote(loadId)).append(",");
+        builder.append("\"nodes_kept\":").append(deleter.getProgress().getNodesKept()).append(",");
+    }
+
+}
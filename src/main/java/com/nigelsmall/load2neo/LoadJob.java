@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Runs a load in the background from a file to which the request body has
+ * been spooled, deleting the file once the load has finished. The node ids
+ * that a load would normally return are discarded; the load summary stands
+ * in for them as the job's progress. A load streamed over the request's own
+ * connection can also be tracked as a job, so that its summary can be read
+ * separately from the node ids.
+ */
+class LoadJob extends Job {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final GeoffLoad load;
+    private final File file;
+
+    private GeoffReader reader;
+    private Writer writer;
+
+    LoadJob(String id, GeoffLoad load, File file) {
+        super(id);
+        this.load = load;
+        this.file = file;
+    }
+
+    LoadJob(String id, GeoffLoad load) {
+        this(id, load, null);
+    }
+
+    /**
+     * Run the load in the calling thread, reading the request body directly
+     * and writing node ids to the response.
+     */
+    void stream(GeoffReader reader, Writer writer) throws IOException {
+        this.reader = reader;
+        this.writer = writer;
+        try {
+            runInline();
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Copy a request body into a new temporary file.
+     */
+    static File spool(Reader reader) throws IOException {
+        File file = File.createTempFile("load2neo-", ".geoff");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8))) {
+            char[] buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, count);
+            }
+        } catch (IOException | RuntimeException ex) {
+            file.delete();
+            throw ex;
+        }
+        return file;
+    }
+
+    @Override
+    void execute() throws Exception {
+        if (file == null) {
+            load.run(reader, writer);
+            return;
+        }
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            load.run(new GeoffReader(reader), new DiscardWriter());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Override
+    void stop() {
+        load.cancel();
+    }
+
+    @Override
+    String getProgressJson() {
+        return load.getSummary().toJson();
+    }
+
+}
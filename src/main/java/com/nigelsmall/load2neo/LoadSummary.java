@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+/**
+ * Running totals for a single load.
+ */
+class LoadSummary {
+
+    private final long startTime = System.currentTimeMillis();
+
+    private long subgraphs = 0;
+    private long nodes = 0;
+    private long relationships = 0;
+    private long batches = 0;
+    private int batchSize = 0;
+    private long retries = 0;
+    private long denseRelationships = 0;
+    private long skipped = 0;
+
+    synchronized void batchCommitted(int subgraphs, long nodes, long relationships, int batchSize) {
+        this.subgraphs += subgraphs;
+        this.nodes += nodes;
+        this.relationships += relationships;
+        this.batches += 1;
+        this.batchSize = batchSize;
+    }
+
+    synchronized void retried() {
+        this.retries += 1;
+    }
+
+    synchronized void skipped(long count) {
+        this.skipped += count;
+    }
+
+    synchronized void denseRelationships(long count) {
+        this.denseRelationships += count;
+    }
+
+    synchronized String toJson() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        long entitiesPerSecond = elapsed == 0 ? 0 : 1000 * (nodes + relationships) / elapsed;
+        return "{" +
+                "\"subgraphs\":" + subgraphs + "," +
+                "\"skipped\":" + skipped + "," +
+                "\"nodes\":" + nodes + "," +
+                "\"relationships\":" + relationships + "," +
+                "\"batches\":" + batches + "," +
+                "\"batch_size\":" + batchSize + "," +
+                "\"retries\":" + retries + "," +
+                "\"dense_relationships\":" + denseRelationships + "," +
+                "\"entities_per_second\":" + entitiesPerSecond + "," +
+                "\"elapsed_ms\":" + elapsed +
+                "}";
+    }
+
+}
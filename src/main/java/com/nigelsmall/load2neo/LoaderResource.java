@@ -16,28 +16,28 @@
 
 package com.nigelsmall.load2neo;
 
-import com.nigelsmall.geoff.Subgraph;
-import com.nigelsmall.geoff.loader.NeoLoader;
 import com.nigelsmall.geoff.reader.GeoffReader;
 import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Transaction;
 
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 import java.io.*;
+import java.net.URI;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
-import java.util.Map;
 
 @Path("/load")
 public class LoaderResource {
 
-    private final static CharsetEncoder UTF8_ENCODER = Charset.forName("UTF-8").newEncoder();
+    private final static Charset UTF8 = Charset.forName("UTF-8");
 
     private final GraphDatabaseService database;
 
@@ -48,43 +48,162 @@ public class LoaderResource {
     @POST
     @Produces("text/x-tab-separated-json; charset=UTF-8")
     @Path("/geoff")
-    public Response loadGeoff(Reader reader) {
+    public Response loadGeoff(Reader reader,
+                              @QueryParam("batch_size") Integer batchSize,
+                              @QueryParam("batch_entities") Long batchEntities,
+                              @QueryParam("batch_millis") Long batchMillis,
+                              @QueryParam("adaptive") boolean adaptive,
+                              @QueryParam("target_latency") Long targetLatency,
+                              @QueryParam("parallelism") Integer parallelism,
+                              @QueryParam("retries") Integer retries,
+                              @QueryParam("ordered_locks") Boolean orderedLocks,
+                              @QueryParam("share_names") boolean shareNames,
+                              @QueryParam("name_map") String nameMap,
+                              @QueryParam("bloom") Boolean bloom,
+                              @QueryParam("mode") String mode,
+                              @QueryParam("two_pass") Boolean twoPass,
+                              @QueryParam("dense_threshold") Integer denseThreshold,
+                              @QueryParam("load_id") String loadId,
+                              @QueryParam("resume") boolean resume,
+                              @QueryParam("async") boolean async,
+                              @QueryParam("summary") boolean summary,
+                              @Context UriInfo info) {
+
+        final GeoffLoad load;
+        try {
+            CommitPolicy policy;
+            int subgraphs = batchSize == null ? Settings.BATCH_SIZE : batchSize;
+            long entities = batchEntities == null ? Settings.BATCH_ENTITIES : batchEntities;
+            long millis = batchMillis == null ? Settings.BATCH_MILLIS : batchMillis;
+            if (adaptive) {
+                policy = new AdaptiveCommitPolicy(subgraphs, Settings.ADAPTIVE_MAX_BATCH_SIZE, entities, millis,
+                        targetLatency == null ? Settings.TARGET_LATENCY : targetLatency);
+            } else {
+                policy = new CommitPolicy(subgraphs, entities, millis);
+            }
+            RetryPolicy retryPolicy = new RetryPolicy(retries == null ? Settings.RETRIES : retries,
+                    Settings.RETRY_BACKOFF);
+            load = new GeoffLoad(database, policy, retryPolicy);
+            if (shareNames) {
+                load.setNameMap(createNameMap(nameMap == null ? Settings.NAME_MAP : nameMap));
+            }
+            load.setParallelism(parallelism == null ? Settings.PARALLELISM : parallelism);
+            load.setOrderedLocks(orderedLocks == null ? Settings.ORDERED_LOCKS : orderedLocks);
+            load.setCreateOnly(isCreateMode(mode == null ? Settings.MODE : mode));
+            load.setTwoPass(twoPass == null ? Settings.TWO_PASS : twoPass);
+            load.setDenseThreshold(denseThreshold == null ? Settings.DENSE_THRESHOLD : denseThreshold);
+            if (loadId != null) {
+                load.setProvenance(new Provenance(loadId));
+            } else if (resume) {
+                throw new IllegalArgumentException("resume requires a load_id");
+            }
+            if (bloom == null ? Settings.BLOOM : bloom) {
+                load.setMergeFilter(new MergeFilter(database));
+            }
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+
+        if (loadId != null) {
+            // the checkpoint itself is taken only once the load runs, so that nothing can leave it held
+            if (Checkpoint.isActive(loadId)) {
+                return Response.status(Response.Status.CONFLICT)
+                        .entity("Load " + loadId + " is already running\n").build();
+            }
+            load.setCheckpoint(loadId, resume);
+        }
+
+        File file = null;
+        if (async) {
+            try {
+                file = LoadJob.spool(reader);
+            } catch (IOException ex) {
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(ex.getMessage() + "\n").build();
+            }
+        }
+
+        if (async) {
+            return JobResource.submit(info, new LoadJob(JobRegistry.getInstance().nextId(), load, file));
+        }
 
         final GeoffReader geoffReader = new GeoffReader(reader);
-        final NeoLoader neoLoader = new NeoLoader(database);
+        final LoadJob job;
+        if (summary) {
+            job = new LoadJob(JobRegistry.getInstance().nextId(), load);
+            JobRegistry.getInstance().register(job);
+        } else {
+            job = null;
+        }
 
         StreamingOutput stream = new StreamingOutput() {
 
             @Override
             public void write(OutputStream os) throws IOException {
-                Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF8_ENCODER));
-                while (geoffReader.hasMore()) {
-                    Subgraph subgraph = geoffReader.readSubgraph();
-                    try (Transaction tx = database.beginTx()) {
-                        Map<String, Node> nodes = neoLoader.load(subgraph);
-                        writer.write("{");
-                        String separator = "";
-                        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
-                            Node node = entry.getValue();
-                            writer.write(separator);
-                            writer.write('"');
-                            writer.write(entry.getKey());
-                            writer.write('"');
-                            writer.write(':');
-                            writer.write(Long.toString(node.getId()));
-                            separator = ",";
-                        }
-                        writer.write("}\n");
-                        writer.flush();
-                        tx.success();
-                    }
+                Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF8));
+                if (job == null) {
+                    load.run(geoffReader, writer);
+                } else {
+                    job.stream(geoffReader, writer);
                 }
             }
 
         };
 
+        if (job != null) {
+            URI location = info.getBaseUriBuilder().path(JobResource.class).path(job.getId()).build();
+            return Response.status(Response.Status.OK).entity(stream)
+                    .header("Link", "<" + location + ">; rel=\"summary\"").build();
+        }
         return Response.status(Response.Status.OK).entity(stream).build();
 
     }
 
+    private static boolean isCreateMode(String mode) {
+        switch (mode) {
+            case "merge":
+                return false;
+            case "create":
+                return true;
+            default:
+                throw new IllegalArgumentException("mode must be merge or create");
+        }
+    }
+
+    private static NameMap createNameMap(String type) {
+        switch (type) {
+            case "heap":
+                return new HeapNameMap();
+            case "offheap":
+                return new OffHeapNameMap();
+            default:
+                throw new IllegalArgumentException("name_map must be heap or offheap");
+        }
+    }
+
+    @GET
+    @Produces("application/json")
+    @Path("/merge_cache")
+    public Response getMergeCache() {
+        return Response.status(Response.Status.OK).entity(MergeCache.getInstance().toJson() + "\n").build();
+    }
+
+    @DELETE
+    @Path("/loads/{id}")
+    @Produces("text/x-tab-separated-json; charset=UTF-8")
+    public Response deleteLoad(@PathParam("id") String id,
+                               @QueryParam("batch_size") Integer batchSize,
+                               @QueryParam("async") boolean async,
+                               @QueryParam("progress") boolean progress,
+                               @Context UriInfo info) {
+        BulkDelete delete;
+        try {
+            BatchDeleter deleter = new BatchDeleter(database,
+                    batchSize == null ? Settings.DELETE_BATCH_SIZE : batchSize, new DeleteProgress());
+            delete = new LoadDelete(deleter, new RetryPolicy(Settings.RETRIES, Settings.RETRY_BACKOFF), id);
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        return AllTheThingsResource.start(delete, async, progress, info);
+    }
+
 }
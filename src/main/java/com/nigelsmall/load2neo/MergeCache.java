@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Server-wide cache of the node ids found or created for merge keys,
+ * evicting the least recently used entry once full. Entries are only
+ * added for committed transactions and are treated as hints: a loader
+ * checks that the node still carries the expected label and property
+ * before trusting one, so deletions and updates made elsewhere cannot
+ * cause a wrong merge.
+ */
+class MergeCache {
+
+    private final static MergeCache INSTANCE = new MergeCache(Settings.MERGE_CACHE_SIZE);
+
+    static MergeCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<MergeKey, Long> ids;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    MergeCache(final int capacity) {
+        this.capacity = capacity;
+        this.ids = new LinkedHashMap<MergeKey, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MergeKey, Long> eldest) {
+                if (size() > capacity) {
+                    evictions += 1;
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Return the cached node id for a merge key, or -1 if there is none.
+     */
+    synchronized long get(MergeKey key) {
+        Long id = ids.get(key);
+        if (id == null) {
+            misses += 1;
+            return -1;
+        } else {
+            hits += 1;
+            return id;
+        }
+    }
+
+    synchronized void putAll(Map<MergeKey, Long> entries) {
+        if (capacity > 0) {
+            ids.putAll(entries);
+        }
+    }
+
+    synchronized void invalidate(MergeKey key) {
+        if (ids.remove(key) != null) {
+            invalidations += 1;
+        }
+    }
+
+    synchronized void invalidateAll(Collection<MergeKey> keys) {
+        for (MergeKey key : keys) {
+            invalidate(key);
+        }
+    }
+
+    synchronized void clear() {
+        invalidations += ids.size();
+        ids.clear();
+    }
+
+    synchronized String toJson() {
+        return "{" +
+                "\"capacity\":" + capacity + "," +
+                "\"size\":" + ids.size() + "," +
+                "\"hits\":" + hits + "," +
+                "\"misses\":" + misses + "," +
+                "\"evictions\":" + evictions + "," +
+                "\"invalidations\":" + invalidations +
+                "}";
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bloom filters of the merge key values present in the database, one per
+ * label and key, used by a single load to skip the index lookup for keys
+ * that are certainly absent. Each filter is built from a label scan when
+ * its label and key are first seen and is kept up to date with the nodes
+ * the load creates. Nodes created by other writers during the load are
+ * not seen, so this is only safe when nothing else is creating nodes with
+ * the same labels.
+ */
+class MergeFilter {
+
+    private final static double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private final static long MIN_EXPECTED_ENTRIES = 1000000;
+
+    private final GraphDatabaseService database;
+    private final Map<String, BloomFilter> filters = new HashMap<>();
+
+    MergeFilter(GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Return false if no node with this merge key exists, or true if one
+     * might. Must be called within a transaction.
+     */
+    boolean mightContain(MergeKey key) {
+        return getFilter(key).mightContain(key.getValueString());
+    }
+
+    void add(MergeKey key) {
+        getFilter(key).add(key.getValueString());
+    }
+
+    private synchronized BloomFilter getFilter(MergeKey key) {
+        String name = key.getLabel() + "!" + key.getKey();
+        BloomFilter filter = filters.get(name);
+        if (filter == null) {
+            filter = build(DynamicLabel.label(key.getLabel()), key.getKey());
+            filters.put(name, filter);
+        }
+        return filter;
+    }
+
+    private BloomFilter build(Label label, String key) {
+        GlobalGraphOperations global = GlobalGraphOperations.at(database);
+        long count = 0;
+        try (ResourceIterator<Node> nodes = global.getAllNodesWithLabel(label).iterator()) {
+            while (nodes.hasNext()) {
+                nodes.next();
+                count += 1;
+            }
+        }
+        // leave room for the nodes this load is about to create
+        BloomFilter filter = new BloomFilter(Math.max(2 * count, MIN_EXPECTED_ENTRIES), FALSE_POSITIVE_PROBABILITY);
+        try (ResourceIterator<Node> nodes = global.getAllNodesWithLabel(label).iterator()) {
+            while (nodes.hasNext()) {
+                Object value = nodes.next().getProperty(key, null);
+                if (value != null) {
+                    filter.add(MergeKey.toValueString(value));
+                }
+            }
+        }
+        return filter;
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.AbstractNode;
+
+import java.util.Arrays;
+
+/**
+ * The label, property key and property value by which a unique node is
+ * merged into the graph. Merge keys sort by label, then key, then value,
+ * giving an order that is the same in every process.
+ */
+class MergeKey implements Comparable<MergeKey> {
+
+    /**
+     * Return the merge key for a node, or null if the node is not unique.
+     */
+    static MergeKey of(AbstractNode node) {
+        String label = node.getUniqueLabel();
+        String key = node.getUniqueKey();
+        if (label == null || key == null) {
+            return null;
+        }
+        return new MergeKey(label, key, node.getProperties().get(key));
+    }
+
+    /**
+     * Render a property value such that values the index treats as equal,
+     * such as an integer and a long, render the same.
+     */
+    static String toValueString(Object value) {
+        if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            return "i:" + ((Number) value).longValue();
+        } else if (value instanceof Float || value instanceof Double) {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && !Double.isInfinite(number)) {
+                return "i:" + (long) number;
+            } else {
+                return "f:" + number;
+            }
+        } else if (value instanceof String || value instanceof Character) {
+            return "s:" + value;
+        } else {
+            return "o:" + Arrays.deepToString(new Object[] {value});
+        }
+    }
+
+    private final String label;
+    private final String key;
+    private final Object value;
+
+    MergeKey(String label, String key, Object value) {
+        this.label = label;
+        this.key = key;
+        this.value = value;
+    }
+
+    String getLabel() {
+        return label;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    Object getValue() {
+        return value;
+    }
+
+    String getValueString() {
+        return toValueString(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compareTo(MergeKey that) {
+        int result = label.compareTo(that.label);
+        if (result == 0) {
+            result = key.compareTo(that.key);
+        }
+        if (result == 0 && value != that.value) {
+            if (value == null || that.value == null) {
+                result = value == null ? -1 : 1;
+            } else if (value.getClass() != that.value.getClass()) {
+                result = value.getClass().getName().compareTo(that.value.getClass().getName());
+            } else if (value instanceof Comparable) {
+                result = ((Comparable<Object>) value).compareTo(that.value);
+            } else {
+                result = Arrays.deepToString(new Object[] {value}).compareTo(
+                        Arrays.deepToString(new Object[] {that.value}));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MergeKey)) {
+            return false;
+        }
+        MergeKey that = (MergeKey) other;
+        // array values compare by content, as they do in compareTo
+        return label.equals(that.label) && key.equals(that.key) &&
+                Arrays.deepEquals(new Object[] {value}, new Object[] {that.value});
+    }
+
+    @Override
+    public int hashCode() {
+        int result = label.hashCode();
+        result = 31 * result + key.hashCode();
+        result = 31 * result + Arrays.deepHashCode(new Object[] {value});
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return label + "!" + key + "=" + value;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+/**
+ * Maps node names to node ids for the lifetime of a load, so that a
+ * subgraph can refer to nodes loaded by earlier subgraphs.
+ */
+interface NameMap {
+
+    /**
+     * Return the id of the named node, or -1 if the name is unknown.
+     */
+    long get(String name);
+
+    void put(String name, long id);
+
+    /**
+     * Release the memory held by this map, which must not be used again.
+     * A finished load may stay reachable for some time, for instance as a
+     * job in the job history, so its names are released explicitly.
+     */
+    void close();
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A name map held outside the Java heap, for loads with too many named
+ * nodes for a HashMap. Names are stored as length-prefixed UTF-8 bytes in
+ * a series of direct buffer pages, while an open-addressing hash table,
+ * also in direct buffers, holds the hash, page offset and node id of each
+ * entry. Neither adds objects for the garbage collector to trace, and the
+ * memory is released once the map has been closed or has become
+ * unreachable.
+ *
+ * Entries can be added and replaced but not removed.
+ */
+class OffHeapNameMap implements NameMap {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static int PAGE_BITS = 24;
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // each slot holds an int hash, a long key address and a long node id
+    private final static int SLOT_SIZE = 20;
+    private final static int SLOTS_PER_TABLE_PAGE = PAGE_SIZE / SLOT_SIZE;
+
+    private final static double MAX_LOAD = 0.7;
+
+    private final List<ByteBuffer> keyPages = new ArrayList<>();
+    private ByteBuffer keyPage;
+
+    private List<ByteBuffer> table;
+    private long capacity;
+    private long size = 0;
+
+    OffHeapNameMap() {
+        this(1 << 16);
+    }
+
+    OffHeapNameMap(long initialCapacity) {
+        long capacity = 1;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        this.table = allocateTable(capacity);
+        this.capacity = capacity;
+        this.keyPage = newKeyPage();
+    }
+
+    @Override
+    public synchronized long get(String name) {
+        checkOpen();
+        byte[] key = name.getBytes(UTF8);
+        int hash = hash(key);
+        long slot = findSlot(table, capacity, key, hash);
+        return getAddress(table, slot) == 0 ? -1 : getId(table, slot);
+    }
+
+    @Override
+    public synchronized void put(String name, long id) {
+        checkOpen();
+        byte[] key = name.getBytes(UTF8);
+        int hash = hash(key);
+        long slot = findSlot(table, capacity, key, hash);
+        if (getAddress(table, slot) != 0) {
+            setId(table, slot, id);
+            return;
+        }
+        setSlot(table, slot, hash, storeKey(key), id);
+        size += 1;
+        if (size > capacity * MAX_LOAD) {
+            grow();
+        }
+    }
+
+    /**
+     * Drop every page, so that the direct buffers can be freed even while
+     * the map itself is still reachable.
+     */
+    @Override
+    public synchronized void close() {
+        table = null;
+        keyPages.clear();
+        keyPage = null;
+    }
+
+    private void checkOpen() {
+        if (table == null) {
+            throw new IllegalStateException("Name map is closed");
+        }
+    }
+
+    private void grow() {
+        long newCapacity = capacity << 1;
+        List<ByteBuffer> newTable = allocateTable(newCapacity);
+        for (long slot = 0; slot < capacity; slot++) {
+            long address = getAddress(table, slot);
+            if (address != 0) {
+                int hash = getHash(table, slot);
+                long newSlot = hash & (newCapacity - 1);
+                while (getAddress(newTable, newSlot) != 0) {
+                    newSlot = (newSlot + 1) & (newCapacity - 1);
+                }
+                setSlot(newTable, newSlot, hash, address, getId(table, slot));
+            }
+        }
+        table = newTable;
+        capacity = newCapacity;
+    }
+
+    /**
+     * Find the slot holding the given key or, failing that, the empty slot
+     * at which it should be inserted.
+     */
+    private long findSlot(List<ByteBuffer> table, long capacity, byte[] key, int hash) {
+        long slot = hash & (capacity - 1);
+        while (true) {
+            long address = getAddress(table, slot);
+            if (address == 0 || (getHash(table, slot) == hash && keyEquals(address, key))) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    /**
+     * Copy a key into the key pages, returning its address. Addresses are
+     * offset by one so that zero can mark an empty slot.
+     */
+    private long storeKey(byte[] key) {
+        if (4 + key.length > PAGE_SIZE) {
+            throw new IllegalArgumentException("Name too long");
+        }
+        if (keyPage.remaining() < 4 + key.length) {
+            keyPage = newKeyPage();
+        }
+        long address = ((long) (keyPages.size() - 1) << PAGE_BITS) + keyPage.position() + 1;
+        keyPage.putInt(key.length);
+        keyPage.put(key);
+        return address;
+    }
+
+    private boolean keyEquals(long address, byte[] key) {
+        ByteBuffer page = keyPages.get((int) ((address - 1) >>> PAGE_BITS));
+        int offset = (int) ((address - 1) & (PAGE_SIZE - 1));
+        if (page.getInt(offset) != key.length) {
+            return false;
+        }
+        offset += 4;
+        for (int i = 0; i < key.length; i++) {
+            if (page.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer newKeyPage() {
+        ByteBuffer page = ByteBuffer.allocateDirect(PAGE_SIZE);
+        keyPages.add(page);
+        return page;
+    }
+
+    private static List<ByteBuffer> allocateTable(long capacity) {
+        List<ByteBuffer> pages = new ArrayList<>();
+        for (long remaining = capacity; remaining > 0; remaining -= SLOTS_PER_TABLE_PAGE) {
+            pages.add(ByteBuffer.allocateDirect((int) Math.min(remaining, SLOTS_PER_TABLE_PAGE) * SLOT_SIZE));
+        }
+        return pages;
+    }
+
+    private static ByteBuffer page(List<ByteBuffer> table, long slot) {
+        return table.get((int) (slot / SLOTS_PER_TABLE_PAGE));
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot % SLOTS_PER_TABLE_PAGE) * SLOT_SIZE;
+    }
+
+    private static int getHash(List<ByteBuffer> table, long slot) {
+        return page(table, slot).getInt(offset(slot));
+    }
+
+    private static long getAddress(List<ByteBuffer> table, long slot) {
+        return page(table, slot).getLong(offset(slot) + 4);
+    }
+
+    private static long getId(List<ByteBuffer> table, long slot) {
+        return page(table, slot).getLong(offset(slot) + 12);
+    }
+
+    private static void setId(List<ByteBuffer> table, long slot, long id) {
+        page(table, slot).putLong(offset(slot) + 12, id);
+    }
+
+    private static void setSlot(List<ByteBuffer> table, long slot, int hash, long address, long id) {
+        ByteBuffer page = page(table, slot);
+        int offset = offset(slot);
+        page.putInt(offset, hash);
+        page.putLong(offset + 4, address);
+        page.putLong(offset + 12, id);
+    }
+
+    /**
+     * FNV-1a, spread so that the low bits used for the slot index depend
+     * on every byte of the key.
+     */
+    private static int hash(byte[] key) {
+        int hash = 0x811c9dc5;
+        for (byte b : key) {
+            hash ^= b & 0xff;
+            hash *= 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+}
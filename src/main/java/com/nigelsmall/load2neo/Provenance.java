@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.RelationshipIndex;
+
+/**
+ * Marks the nodes and relationships created by a load with the load's id,
+ * both as a property and in a pair of legacy indexes, so that everything
+ * created by one load can later be found and removed without scanning the
+ * store. Nodes that are merged with existing nodes are not marked.
+ */
+class Provenance {
+
+    final static String INDEX_NAME = "load2neo_loads";
+    final static String INDEX_KEY = "load_id";
+
+    static Index<Node> nodeIndex(GraphDatabaseService database) {
+        return database.index().forNodes(INDEX_NAME);
+    }
+
+    static RelationshipIndex relationshipIndex(GraphDatabaseService database) {
+        return database.index().forRelationships(INDEX_NAME);
+    }
+
+    private final String loadId;
+
+    Provenance(String loadId) {
+        if (loadId.isEmpty()) {
+            throw new IllegalArgumentException("load_id must not be empty");
+        }
+        this.loadId = loadId;
+    }
+
+    void mark(GraphDatabaseService database, Node node) {
+        node.setProperty(Settings.LOAD_ID_PROPERTY, loadId);
+        nodeIndex(database).add(node, INDEX_KEY, loadId);
+    }
+
+    void mark(GraphDatabaseService database, Relationship relationship) {
+        relationship.setProperty(Settings.LOAD_ID_PROPERTY, loadId);
+        relationshipIndex(database).add(relationship, INDEX_KEY, loadId);
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.AbstractRelationship;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The relationships of a batch whose nodes have already been loaded,
+ * grouped so that they can be created in partitions that never share a
+ * node. Creating a relationship locks both of its nodes, so partitions
+ * are kept apart by start and end node alike.
+ */
+class RelationshipPass {
+
+    static class Entry {
+
+        private final long startNode;
+        private final long endNode;
+        private final AbstractRelationship relationship;
+
+        Entry(long startNode, long endNode, AbstractRelationship relationship) {
+            this.startNode = startNode;
+            this.endNode = endNode;
+            this.relationship = relationship;
+        }
+
+        long getStartNode() {
+            return startNode;
+        }
+
+        long getEndNode() {
+            return endNode;
+        }
+
+    }
+
+    private final static Comparator<Entry> BY_START_NODE = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Long.compare(a.startNode, b.startNode);
+        }
+    };
+
+    private final static int SHARED = -2;
+
+    private List<Entry> entries = new ArrayList<>();
+    private List<Entry> crossing = Collections.emptyList();
+
+    void add(long startNode, long endNode, AbstractRelationship relationship) {
+        entries.add(new Entry(startNode, endNode, relationship));
+    }
+
+    /**
+     * Remove and return every relationship attached to a dense node, that
+     * is, a node with at least the given number of relationships in this
+     * pass. The remaining relationships never touch a dense node.
+     */
+    List<Entry> removeDense(int threshold) {
+        Map<Long, Integer> degrees = new HashMap<>();
+        for (Entry entry : entries) {
+            increment(degrees, entry.startNode);
+            if (entry.endNode != entry.startNode) {
+                increment(degrees, entry.endNode);
+            }
+        }
+        List<Entry> kept = new ArrayList<>(entries.size());
+        List<Entry> dense = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (degrees.get(entry.startNode) >= threshold || degrees.get(entry.endNode) >= threshold) {
+                dense.add(entry);
+            } else {
+                kept.add(entry);
+            }
+        }
+        entries = kept;
+        Collections.sort(dense, BY_START_NODE);
+        return dense;
+    }
+
+    private static void increment(Map<Long, Integer> degrees, long node) {
+        Integer degree = degrees.get(node);
+        degrees.put(node, degree == null ? 1 : degree + 1);
+    }
+
+    /**
+     * Split the relationships into at most the given number of partitions
+     * of roughly equal size, each covering a contiguous range of start
+     * node ids and ordered by start node within it. No node is touched by
+     * two partitions, nor by a partition and the given dense relationships.
+     * Relationships that would break this are held back as crossing
+     * relationships, to be created only once every partition is done.
+     */
+    List<List<Entry>> partition(int count, List<Entry> dense) {
+        Collections.sort(entries, BY_START_NODE);
+        List<List<Entry>> ranges = new ArrayList<>();
+        int target = Math.max(1, (entries.size() + count - 1) / count);
+        List<Entry> range = new ArrayList<>();
+        for (Entry entry : entries) {
+            // never split the relationships of one start node between partitions
+            if (range.size() >= target && range.get(range.size() - 1).startNode != entry.startNode) {
+                ranges.add(range);
+                range = new ArrayList<>();
+            }
+            range.add(entry);
+        }
+        if (!range.isEmpty()) {
+            ranges.add(range);
+        }
+        Map<Long, Integer> owners = new HashMap<>();
+        claim(owners, dense, -1);
+        for (int i = 0; i < ranges.size(); i++) {
+            claim(owners, ranges.get(i), i);
+        }
+        List<List<Entry>> partitions = new ArrayList<>();
+        crossing = new ArrayList<>();
+        for (List<Entry> entries : ranges) {
+            List<Entry> partition = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (owners.get(entry.startNode) == SHARED || owners.get(entry.endNode) == SHARED) {
+                    crossing.add(entry);
+                } else {
+                    partition.add(entry);
+                }
+            }
+            if (!partition.isEmpty()) {
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * The relationships held back by the last call to partition, which
+     * join nodes belonging to different partitions.
+     */
+    List<Entry> getCrossing() {
+        return crossing;
+    }
+
+    /**
+     * Record a group as the owner of the nodes its relationships touch,
+     * or mark a node as shared if another group already owns it.
+     */
+    private static void claim(Map<Long, Integer> owners, List<Entry> group, int index) {
+        for (Entry entry : group) {
+            claim(owners, entry.startNode, index);
+            claim(owners, entry.endNode, index);
+        }
+    }
+
+    private static void claim(Map<Long, Integer> owners, long node, int index) {
+        Integer owner = owners.get(node);
+        if (owner == null) {
+            owners.put(node, index);
+        } else if (owner != index) {
+            owners.put(node, SHARED);
+        }
+    }
+
+    /**
+     * Create the relationships of one partition within the current
+     * transaction, marking them with the load's provenance if it has one.
+     */
+    static void load(GraphDatabaseService database, List<Entry> partition, Provenance provenance) {
+        for (Entry entry : partition) {
+            SubgraphLoader.createRelationship(database.getNodeById(entry.startNode),
+                    database.getNodeById(entry.endNode), entry.relationship, provenance);
+        }
+    }
+
+}
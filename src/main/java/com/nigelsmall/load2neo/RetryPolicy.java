@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed transaction should be attempted again and how
+ * long to wait before doing so. Only deadlocks are retried; the wait
+ * doubles with each attempt and is jittered so that the transactions
+ * involved do not simply collide again.
+ */
+class RetryPolicy {
+
+    private final static int MAX_DOUBLINGS = 10;
+
+    private final int maxRetries;
+    private final long backoff;
+
+    RetryPolicy(int maxRetries, long backoff) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("retries must not be negative");
+        }
+        if (backoff < 0) {
+            throw new IllegalArgumentException("retry backoff must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Return true if a transaction that has failed with the given
+     * exception should be retried, given the number of the attempt that
+     * failed (starting at one).
+     */
+    boolean isRetryable(RuntimeException ex, int attempt) {
+        return attempt <= maxRetries && isDeadlock(ex);
+    }
+
+    void backoff(int attempt) throws InterruptedException {
+        if (backoff > 0) {
+            long delay = backoff << Math.min(attempt - 1, MAX_DOUBLINGS);
+            Thread.sleep(delay + ThreadLocalRandom.current().nextLong(backoff));
+        }
+    }
+
+    static boolean isDeadlock(Throwable ex) {
+        while (ex != null) {
+            if (ex instanceof DeadlockDetectedException) {
+                return true;
+            }
+            ex = ex.getCause();
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Deletes either the nodes with a given label, or the relationships of a
+ * given type. Nodes are found by label scan, their ids streamed in batches
+ * to the deleter. Relationships may be limited to those attached to nodes
+ * with a label, which are found in the same way; otherwise, as there is no
+ * index by type, every relationship in the store has to be scanned, which
+ * must be asked for explicitly.
+ */
+class ScopedDelete extends BulkDelete {
+
+    private final Label label;
+    private final RelationshipType type;
+
+    /**
+     * Create a delete of all nodes with {@code label} if {@code type} is
+     * null, or otherwise of all relationships of {@code type}, attached to
+     * nodes with {@code label} if that is not null. A delete by type alone
+     * is refused unless {@code scan} is true.
+     */
+    ScopedDelete(BatchDeleter deleter, RetryPolicy retryPolicy, Label label, RelationshipType type, boolean scan) {
+        super(deleter, retryPolicy);
+        if (label == null && type == null) {
+            throw new IllegalArgumentException("a label or a relationship type is required");
+        }
+        if (label == null && !scan) {
+            throw new IllegalArgumentException("without a label, every relationship must be scanned; " +
+                    "pass scan=true to do so");
+        }
+        this.label = label;
+        this.type = type;
+    }
+
+    @Override
+    void run(Listener listener) throws IOException {
+        try {
+            if (type == null) {
+                drain(deleter.nodeIds(label), new IdStep() {
+                    @Override
+                    public int run(long[] ids, int from) {
+                        return deleter.deleteNodes(ids, from);
+                    }
+                }, listener);
+            } else if (label == null) {
+                drain(deleter.relationshipIds(type), new IdStep() {
+                    @Override
+                    public int run(long[] ids, int from) {
+                        return deleter.deleteRelationships(ids, from);
+                    }
+                }, listener);
+            } else {
+                drain(deleter.nodeIds(label), new IdStep() {
+                    @Override
+                    public int run(long[] ids, int from) {
+                        return deleter.deleteRelationshipsOfType(type, ids, from);
+                    }
+                }, listener);
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while deleting");
+        } finally {
+            if (type == null) {
+                MergeCache.getInstance().clear();
+            }
+        }
+        listener.progress(this);
+    }
+
+}
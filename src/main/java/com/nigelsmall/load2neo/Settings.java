@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+/**
+ * Server-wide defaults. These are read from system properties so that they
+ * can be set alongside the other JVM options in conf/neo4j-wrapper.conf, e.g.
+ *
+ *     wrapper.java.additional=-Dload2neo.batch_size=1000
+ */
+final class Settings {
+
+    /** Number of subgraphs loaded per transaction. */
+    final static int BATCH_SIZE = Integer.getInteger("load2neo.batch_size", 1);
+
+    /** Number of nodes and relationships after which a batch is committed (0 for no limit). */
+    final static long BATCH_ENTITIES = Long.getLong("load2neo.batch_entities", 0);
+
+    /** Time in milliseconds after which a batch is committed (0 for no limit). */
+    final static long BATCH_MILLIS = Long.getLong("load2neo.batch_millis", 0);
+
+    /** Upper bound for the batch size of adaptive loads. */
+    final static int ADAPTIVE_MAX_BATCH_SIZE = Integer.getInteger("load2neo.adaptive_max_batch_size", 100000);
+
+    /** Commit latency in milliseconds that adaptive loads aim to stay under. */
+    final static long TARGET_LATENCY = Long.getLong("load2neo.target_latency", 500);
+
+    /** Number of parsed subgraphs that may be waiting to be loaded. */
+    final static int QUEUE_SIZE = Integer.getInteger("load2neo.queue_size", 1000);
+
+    /** Number of worker threads loading batches concurrently. */
+    final static int PARALLELISM = Integer.getInteger("load2neo.parallelism", 1);
+
+    /** Upper bound for the number of worker threads a single request may ask for. */
+    final static int MAX_PARALLELISM = Integer.getInteger("load2neo.max_parallelism", 64);
+
+    /** Number of times a deadlocked batch is retried before the load fails. */
+    final static int RETRIES = Integer.getInteger("load2neo.retries", 5);
+
+    /** Initial wait in milliseconds before retrying a deadlocked batch. */
+    final static long RETRY_BACKOFF = Long.getLong("load2neo.retry_backoff", 50);
+
+    /** Whether to lock merged nodes in a fixed order before loading each batch. */
+    final static boolean ORDERED_LOCKS = Boolean.getBoolean("load2neo.ordered_locks");
+
+    /** Number of merge keys held in the server-wide merge cache (0 to disable). */
+    final static int MERGE_CACHE_SIZE = Integer.getInteger("load2neo.merge_cache_size", 0);
+
+    /** Storage for shared names: "heap" or "offheap". */
+    final static String NAME_MAP = System.getProperty("load2neo.name_map", "heap");
+
+    /** Whether loads use Bloom filters to skip lookups for absent merge keys. */
+    final static boolean BLOOM = Boolean.getBoolean("load2neo.bloom");
+
+    /** Load mode: "merge" to merge unique nodes or "create" to create every node. */
+    final static String MODE = System.getProperty("load2neo.mode", "merge");
+
+    /** Whether loads create all nodes of a batch before its relationships. */
+    final static boolean TWO_PASS = Boolean.getBoolean("load2neo.two_pass");
+
+    /** Relationships within a batch from which a node is treated as dense (0 to disable). */
+    final static int DENSE_THRESHOLD = Integer.getInteger("load2neo.dense_threshold", 0);
+
+    /** Number of entities deleted per transaction by bulk deletes. */
+    final static int DELETE_BATCH_SIZE = Integer.getInteger("load2neo.delete_batch_size", 10000);
+
+    /** Number of worker threads used by bulk deletes. */
+    final static int DELETE_PARALLELISM = Integer.getInteger("load2neo.delete_parallelism", 1);
+
+    /** Number of finished background jobs whose outcome is kept. */
+    final static int JOB_HISTORY = Integer.getInteger("load2neo.job_history", 100);
+
+    /** Property in which the id of the load that created a node or relationship is kept. */
+    final static String LOAD_ID_PROPERTY = System.getProperty("load2neo.load_id_property", "_load_id");
+
+    /** Directory in which load2neo keeps its own files, such as watermarks. */
+    final static String DATA_DIR = System.getProperty("load2neo.data_dir", "data/load2neo");
+
+    /** Whether the spool accepts data, and its loader runs, at all. */
+    final static boolean SPOOL = Boolean.getBoolean("load2neo.spool");
+
+    /** Size in bytes at which a spool segment is sealed and handed to the loader. */
+    final static long SPOOL_SEGMENT_SIZE = Long.getLong("load2neo.spool_segment_size", 64 * 1024 * 1024);
+
+    /** Age in milliseconds at which a spool segment is sealed, however small. */
+    final static long SPOOL_SEAL_MILLIS = Long.getLong("load2neo.spool_seal_millis", 1000);
+
+    /** Number of subgraphs per transaction when loading spooled data. */
+    final static int SPOOL_BATCH_SIZE = Integer.getInteger("load2neo.spool_batch_size", 10000);
+
+    private Settings() { }
+
+}
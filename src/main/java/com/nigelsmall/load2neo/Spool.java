@@ -0,0 +1,358 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A directory of Geoff data waiting to be loaded, written as a series of
+ * numbered segment files. Data is appended to the open segment and forced
+ * to disk before an append returns, with appends that arrive together
+ * sharing a single force; the segment is sealed once it reaches
+ * a given size or age, after which it belongs to the loader. Each append
+ * is written as a frame, headed by its length and a CRC32 checksum, so that
+ * an append left partly written by a crash can be recognised and discarded
+ * as a whole. A segment is read back as Geoff with a subgraph boundary
+ * between the data of each append, so that data from separate requests
+ * never runs together.
+ */
+class Spool {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static byte[] BOUNDARY = "\n~~~~\n".getBytes(UTF8);
+
+    // frame header: payload length and CRC32 of the payload, each as an int
+    private final static int HEADER_SIZE = 8;
+
+    private final static String OPEN = ".open";
+    private final static String SEALED = ".geoff";
+    private final static String FAILED = ".failed";
+
+    private final File directory;
+    private final long segmentSize;
+
+    private long nextSequence = 0;
+    private File current = null;
+    private FileChannel channel = null;
+    private long currentSize = 0;
+    private long currentOpened = 0;
+
+    // bytes written to all segments so far, and how many of those are known to be on disk
+    private long written = 0;
+    private final Object syncLock = new Object();
+    private long synced = 0;
+    private long appends = 0;
+
+    Spool(File directory, long segmentSize) throws IOException {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("spool segment size must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        for (File file : list("")) {
+            String name = file.getName();
+            try {
+                nextSequence = Math.max(nextSequence, Long.parseLong(name.substring(0, name.indexOf('.'))) + 1);
+            } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+                // not a segment
+            }
+        }
+        // start above any sequence number used before, even by a segment since deleted, so that no segment
+        // takes the name, and with it the drainer's checkpoint, of an earlier one
+        nextSequence = Math.max(nextSequence, System.currentTimeMillis() * 1000);
+        for (File file : list(OPEN)) {
+            recover(file);
+        }
+    }
+
+    /**
+     * Open a sealed segment for reading as Geoff, checking the checksum of
+     * each append as it is read.
+     */
+    static InputStream read(File segment) throws IOException {
+        return new SegmentInputStream(new DataInputStream(new BufferedInputStream(new FileInputStream(segment))),
+                segment);
+    }
+
+    /**
+     * Append data to the open segment, returning once it is on disk.
+     */
+    void append(byte[] data) throws IOException {
+        sync(write(data));
+    }
+
+    /**
+     * Write a frame to the open segment without forcing it to disk,
+     * returning the position in the spool just after it.
+     */
+    private synchronized long write(byte[] data) throws IOException {
+        if (channel == null) {
+            current = new File(directory, String.format("%020d", nextSequence++) + OPEN);
+            channel = FileChannel.open(current.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            currentSize = 0;
+            currentOpened = System.currentTimeMillis();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length);
+        buffer.putInt(data.length).putInt(checksum(data, 0, data.length)).put(data).flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException ex) {
+            // leave no partial append behind
+            channel.truncate(currentSize);
+            channel.position(currentSize);
+            throw ex;
+        }
+        currentSize += HEADER_SIZE + data.length;
+        written += HEADER_SIZE + data.length;
+        appends += 1;
+        long position = written;
+        if (currentSize >= segmentSize) {
+            seal();
+        }
+        return position;
+    }
+
+    /**
+     * Wait until everything written up to a given position is on disk.
+     * Only one thread forces the open segment at a time, and each force
+     * covers every frame written before it began, so the appends that queue
+     * up behind one force are usually all covered by the next.
+     */
+    private void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            FileChannel channel;
+            long target;
+            synchronized (this) {
+                channel = this.channel;
+                target = written;
+            }
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                } catch (ClosedChannelException ex) {
+                    // sealed in the meantime, and sealing forces the segment first
+                }
+            }
+            // with no open segment, everything written went to segments that were forced as they were sealed
+            synced = target;
+        }
+    }
+
+    /**
+     * Seal the open segment if it has been open for at least the given
+     * time, so that small amounts of data are not left waiting.
+     */
+    synchronized void sealIfOlderThan(long millis) throws IOException {
+        if (channel != null && System.currentTimeMillis() - currentOpened >= millis) {
+            seal();
+        }
+    }
+
+    /**
+     * Return the oldest sealed segment, or null if there is none.
+     */
+    synchronized File nextSealed() {
+        File[] sealed = list(SEALED);
+        return sealed.length == 0 ? null : sealed[0];
+    }
+
+    synchronized void remove(File segment) throws IOException {
+        Files.delete(segment.toPath());
+    }
+
+    /**
+     * Set aside a segment that could not be loaded. It can be loaded again
+     * by renaming it back to a sealed segment.
+     */
+    synchronized void fail(File segment) throws IOException {
+        rename(segment, FAILED);
+    }
+
+    synchronized String toJson() {
+        long pendingBytes = currentSize;
+        File[] sealed = list(SEALED);
+        for (File segment : sealed) {
+            pendingBytes += segment.length();
+        }
+        return "{" +
+                "\"appends\":" + appends + "," +
+                "\"sealed_segments\":" + sealed.length + "," +
+                "\"failed_segments\":" + list(FAILED).length + "," +
+                "\"pending_bytes\":" + pendingBytes +
+                "}";
+    }
+
+    private void seal() throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = null;
+        rename(current, SEALED);
+        current = null;
+        currentSize = 0;
+    }
+
+    /**
+     * Cut an open segment left by a crash back to the end of its last
+     * complete frame and seal it, or delete it if no frame in it was
+     * complete. A frame that is cut short or fails its checksum is
+     * discarded along with anything after it.
+     */
+    private void recover(File segment) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment.toPath()));
+        int end = 0;
+        while (data.limit() - end >= HEADER_SIZE) {
+            int length = data.getInt(end);
+            if (length < 0 || length > data.limit() - end - HEADER_SIZE
+                    || data.getInt(end + 4) != checksum(data.array(), end + HEADER_SIZE, length)) {
+                break;
+            }
+            end += HEADER_SIZE + length;
+        }
+        if (end == 0) {
+            Files.delete(segment.toPath());
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+            channel.force(false);
+        }
+        rename(segment, SEALED);
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void rename(File segment, String suffix) throws IOException {
+        String name = segment.getName();
+        File target = new File(segment.getParentFile(), name.substring(0, name.indexOf('.')) + suffix);
+        Files.move(segment.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File[] list(final String suffix) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(suffix)) {
+                files[count++] = file;
+            }
+        }
+        files = Arrays.copyOf(files, count);
+        // segment names are zero-padded sequence numbers, so name order is append order
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * The appends of a segment as one stream of Geoff, with a subgraph
+     * boundary after each.
+     */
+    private static class SegmentInputStream extends InputStream {
+
+        private final DataInputStream in;
+        private final File segment;
+
+        private byte[] frame = new byte[0];
+        private int position = 0;
+
+        SegmentInputStream(DataInputStream in, File segment) {
+            this.in = in;
+            this.segment = segment;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == frame.length) {
+                if (!nextFrame()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(len, frame.length - position);
+            System.arraycopy(frame, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Read the next frame along with the boundary that follows it,
+         * returning false at the end of the segment.
+         */
+        private boolean nextFrame() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException ex) {
+                return false;
+            }
+            try {
+                int checksum = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Malformed spool segment " + segment);
+                }
+                frame = new byte[length + BOUNDARY.length];
+                in.readFully(frame, 0, length);
+                if (checksum(frame, 0, length) != checksum) {
+                    throw new IOException("Checksum mismatch in spool segment " + segment);
+                }
+            } catch (EOFException ex) {
+                throw new IOException("Truncated spool segment " + segment);
+            }
+            System.arraycopy(BOUNDARY, 0, frame, length, BOUNDARY.length);
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Loads sealed spool segments in the background, one at a time and oldest
+ * first, each as a single load in large batches. Each segment keeps a
+ * checkpoint under its own name, so that a segment cut short by a restart
+ * resumes without the batches it committed. A segment that has been loaded
+ * is deleted along with its checkpoint; one that fails is set aside with
+ * its checkpoint kept, so that it resumes if it is renamed back to be
+ * loaded again.
+ */
+class SpoolDrainer implements Runnable {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static long POLL_MILLIS = 1000;
+
+    private static SpoolDrainer instance = null;
+
+    /**
+     * Return the server-wide drainer, creating the spool and starting the
+     * drainer on first use.
+     */
+    static synchronized SpoolDrainer getInstance(GraphDatabaseService database) throws IOException {
+        if (instance == null) {
+            instance = new SpoolDrainer(database,
+                    new Spool(new File(Settings.DATA_DIR, "spool"), Settings.SPOOL_SEGMENT_SIZE));
+            new NamedThreadFactory("load2neo-spool").newThread(instance).start();
+        }
+        return instance;
+    }
+
+    private final GraphDatabaseService database;
+    private final Spool spool;
+
+    private GeoffLoad current = null;
+    private long segmentsLoaded = 0;
+    private long segmentsFailed = 0;
+    private String lastError = null;
+
+    SpoolDrainer(GraphDatabaseService database, Spool spool) {
+        this.database = database;
+        this.spool = spool;
+    }
+
+    Spool getSpool() {
+        return spool;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                spool.sealIfOlderThan(Settings.SPOOL_SEAL_MILLIS);
+                File segment = spool.nextSealed();
+                if (segment == null) {
+                    Thread.sleep(POLL_MILLIS);
+                } else {
+                    load(segment);
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (IOException | RuntimeException ex) {
+                failed(ex);
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void load(File segment) throws IOException {
+        GeoffLoad load = new GeoffLoad(database,
+                new CommitPolicy(Settings.SPOOL_BATCH_SIZE, Settings.BATCH_ENTITIES, Settings.BATCH_MILLIS),
+                new RetryPolicy(Settings.RETRIES, Settings.RETRY_BACKOFF));
+        load.setParallelism(Settings.PARALLELISM);
+        load.setCheckpoint("spool/" + segment.getName().substring(0, segment.getName().indexOf('.')), true);
+        synchronized (this) {
+            current = load;
+        }
+        try (Reader reader = new BufferedReader(new InputStreamReader(Spool.read(segment), UTF8))) {
+            load.run(new GeoffReader(reader), new DiscardWriter());
+        } catch (IOException | RuntimeException ex) {
+            spool.fail(segment);
+            synchronized (this) {
+                segmentsFailed += 1;
+            }
+            failed(ex);
+            return;
+        } finally {
+            synchronized (this) {
+                current = null;
+            }
+        }
+        spool.remove(segment);
+        synchronized (this) {
+            segmentsLoaded += 1;
+        }
+    }
+
+    private synchronized void failed(Exception ex) {
+        lastError = ex.toString();
+    }
+
+    synchronized String toJson() {
+        return "{" +
+                "\"spool\":" + spool.toJson() + "," +
+                "\"segments_loaded\":" + segmentsLoaded + "," +
+                "\"segments_failed\":" + segmentsFailed + "," +
+                "\"current_load\":" + (current == null ? "null" : current.getSummary().toJson()) + "," +
+                "\"last_error\":" + (lastError == null ? "null" : Job.quote(lastError)) +
+                "}";
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+@Path("/spool")
+public class SpoolResource {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final GraphDatabaseService database;
+
+    public SpoolResource(@Context GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Append Geoff data to the spool, responding as soon as it is safely on
+     * disk. The data is loaded later by the spool drainer, which starts on
+     * the first request to the spool.
+     */
+    @POST
+    @Produces("application/json")
+    public Response append(Reader reader) throws IOException {
+        if (!Settings.SPOOL) {
+            return disabled();
+        }
+        SpoolDrainer drainer = SpoolDrainer.getInstance(database);
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, count);
+            // every char takes at least one byte, so this stops an oversized body early
+            if (builder.length() > Settings.SPOOL_SEGMENT_SIZE) {
+                return tooLarge();
+            }
+        }
+        byte[] data = builder.toString().getBytes(UTF8);
+        if (data.length > Settings.SPOOL_SEGMENT_SIZE) {
+            return tooLarge();
+        }
+        drainer.getSpool().append(data);
+        return Response.status(Response.Status.ACCEPTED).entity("{\"bytes\":" + data.length + "}\n").build();
+    }
+
+    @GET
+    @Produces("application/json")
+    public Response getStatus() throws IOException {
+        if (!Settings.SPOOL) {
+            return disabled();
+        }
+        return Response.status(Response.Status.OK).entity(SpoolDrainer.getInstance(database).toJson() + "\n").build();
+    }
+
+    private static Response disabled() {
+        return Response.status(Response.Status.NOT_FOUND)
+                .entity("spooling is not enabled; set load2neo.spool=true to enable it\n").build();
+    }
+
+    private static Response tooLarge() {
+        return Response.status(413).entity("request is larger than a spool segment\n").build();
+    }
+
+}
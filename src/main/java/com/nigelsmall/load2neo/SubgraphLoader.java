@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.AbstractNode;
+import com.nigelsmall.geoff.AbstractRelationship;
+import com.nigelsmall.geoff.Subgraph;
+import com.nigelsmall.geoff.loader.NeoLoader;
+import org.neo4j.graphdb.*;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes subgraphs into the database within the current transaction, in
+ * the same way as the Geoff NeoLoader: unique nodes are merged on their
+ * label and key, other nodes are created, and labels and properties are
+ * added to whichever node results. When none of the options below is in
+ * use, whole subgraphs are simply handed to a NeoLoader.
+ *
+ * If a name map is supplied, names are also resolved against the nodes
+ * loaded by earlier transactions of the same load. Merge keys are looked
+ * up in the server-wide {@link MergeCache} before the index is used.
+ * If a merge filter is supplied, the lookup is skipped altogether for
+ * merge keys that the filter knows to be absent.
+ * In create-only mode, every node is created without any lookup, which
+ * is only correct when none of them can already exist.
+ * Names and merge keys loaded by this loader are only published by
+ * {@link #finish(boolean)} once its transaction has committed, so that a
+ * rolled back transaction leaves both untouched. A loader should
+ * therefore be used for one transaction only.
+ */
+class SubgraphLoader {
+
+    private final GraphDatabaseService database;
+    private final NameMap names;
+    private final MergeCache mergeCache;
+    private final MergeFilter mergeFilter;
+    private final boolean createOnly;
+    private final Provenance provenance;
+    private final NeoLoader neoLoader;
+
+    private final Map<String, Node> loaded = new HashMap<>();
+    private final Map<MergeKey, Long> merged = new HashMap<>();
+
+    SubgraphLoader(GraphDatabaseService database, NameMap names, MergeCache mergeCache, MergeFilter mergeFilter,
+                   boolean createOnly, Provenance provenance) {
+        this.database = database;
+        this.names = names;
+        this.mergeCache = mergeCache;
+        this.mergeFilter = mergeFilter;
+        this.createOnly = createOnly;
+        this.provenance = provenance;
+        if (names == null && !mergeCache.isEnabled() && mergeFilter == null && !createOnly && provenance == null) {
+            this.neoLoader = new NeoLoader(database);
+        } else {
+            this.neoLoader = null;
+        }
+    }
+
+    Map<String, Node> load(Subgraph subgraph) {
+        if (neoLoader != null) {
+            return neoLoader.load(subgraph);
+        }
+        Map<String, Node> nodes = loadNodes(subgraph);
+        for (AbstractRelationship abstractRelationship : subgraph.getRelationships()) {
+            createRelationship(nodes.get(abstractRelationship.getStartNode().getName()),
+                    nodes.get(abstractRelationship.getEndNode().getName()), abstractRelationship, provenance);
+        }
+        return nodes;
+    }
+
+    /**
+     * Load the nodes of a subgraph but not its relationships.
+     */
+    Map<String, Node> loadNodes(Subgraph subgraph) {
+        Map<String, Node> nodes = new LinkedHashMap<>();
+        for (AbstractNode abstractNode : subgraph.getNodes().values()) {
+            nodes.put(abstractNode.getName(), loadNode(abstractNode));
+        }
+        if (names != null) {
+            loaded.putAll(nodes);
+        }
+        return nodes;
+    }
+
+    static Relationship createRelationship(Node startNode, Node endNode, AbstractRelationship abstractRelationship,
+                                           Provenance provenance) {
+        Relationship relationship = startNode.createRelationshipTo(endNode,
+                DynamicRelationshipType.withName(abstractRelationship.getType()));
+        setProperties(relationship, abstractRelationship.getProperties());
+        if (provenance != null) {
+            provenance.mark(startNode.getGraphDatabase(), relationship);
+        }
+        return relationship;
+    }
+
+    /**
+     * Publish the names and merge keys loaded by this loader if its
+     * transaction was committed, or invalidate any cached entries for
+     * those merge keys if not.
+     */
+    void finish(boolean committed) {
+        if (committed) {
+            if (names != null) {
+                for (Map.Entry<String, Node> entry : loaded.entrySet()) {
+                    names.put(entry.getKey(), entry.getValue().getId());
+                }
+            }
+            mergeCache.putAll(merged);
+        } else {
+            mergeCache.invalidateAll(merged.keySet());
+        }
+        loaded.clear();
+        merged.clear();
+    }
+
+    private Node loadNode(AbstractNode abstractNode) {
+        MergeKey key = MergeKey.of(abstractNode);
+        Node node = resolveName(abstractNode.getName());
+        if (node == null && key != null && !createOnly && (mergeFilter == null || mergeFilter.mightContain(key))) {
+            node = findNode(key);
+        }
+        boolean created = node == null;
+        if (created) {
+            node = database.createNode();
+            if (key != null && mergeFilter != null && !createOnly) {
+                mergeFilter.add(key);
+            }
+        }
+        if (key != null) {
+            merged.put(key, node.getId());
+        }
+        for (String label : abstractNode.getLabels()) {
+            node.addLabel(DynamicLabel.label(label));
+        }
+        setProperties(node, abstractNode.getProperties());
+        if (created && provenance != null) {
+            provenance.mark(database, node);
+        }
+        return node;
+    }
+
+    private Node resolveName(String name) {
+        if (names == null) {
+            return null;
+        }
+        Node node = loaded.get(name);
+        if (node == null) {
+            long id = names.get(name);
+            if (id >= 0) {
+                try {
+                    node = database.getNodeById(id);
+                } catch (NotFoundException ex) {
+                    // deleted since it was loaded
+                }
+            }
+        }
+        return node;
+    }
+
+    private Node findNode(MergeKey key) {
+        long id = key.getValue() == null ? -1 : mergeCache.get(key);
+        if (id >= 0) {
+            try {
+                Node node = database.getNodeById(id);
+                if (node.hasLabel(DynamicLabel.label(key.getLabel())) &&
+                        key.getValue().equals(node.getProperty(key.getKey(), null))) {
+                    return node;
+                }
+            } catch (NotFoundException ex) {
+                // deleted since it was cached
+            }
+            mergeCache.invalidate(key);
+        }
+        try (ResourceIterator<Node> nodes = database.findNodesByLabelAndProperty(
+                DynamicLabel.label(key.getLabel()), key.getKey(), key.getValue()).iterator()) {
+            return nodes.hasNext() ? nodes.next() : null;
+        }
+    }
+
+    private static void setProperties(PropertyContainer entity, Map<String, Object> properties) {
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                entity.removeProperty(entry.getKey());
+            } else {
+                entity.setProperty(entry.getKey(), toPropertyValue(value));
+            }
+        }
+    }
+
+    /**
+     * Convert a list into an array, as Neo4j properties cannot hold lists.
+     * Numbers of mixed types are widened to long or, if any of them is
+     * fractional, to double; other mixtures of types are rejected.
+     */
+    static Object toPropertyValue(Object value) {
+        if (!(value instanceof List)) {
+            return value;
+        }
+        List<?> list = (List<?>) value;
+        Class<?> type = getElementType(list);
+        Object array = Array.newInstance(type, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            Object item = list.get(i);
+            if (type == Long.class) {
+                item = ((Number) item).longValue();
+            } else if (type == Double.class) {
+                item = ((Number) item).doubleValue();
+            }
+            Array.set(array, i, item);
+        }
+        return array;
+    }
+
+    private static Class<?> getElementType(List<?> list) {
+        Class<?> type = null;
+        for (Object item : list) {
+            if (item == null) {
+                throw new IllegalArgumentException("Property list " + list + " contains null");
+            }
+            Class<?> itemType = item.getClass();
+            if (type == null || type == itemType) {
+                type = itemType;
+            } else if (isNumber(type) && isNumber(itemType)) {
+                type = isIntegral(type) && isIntegral(itemType) ? Long.class : Double.class;
+            } else {
+                throw new IllegalArgumentException("Property list " + list + " mixes " +
+                        type.getSimpleName() + " and " + itemType.getSimpleName() + " values");
+            }
+        }
+        return type == null ? String.class : type;
+    }
+
+    private static boolean isNumber(Class<?> type) {
+        return isIntegral(type) || type == Float.class || type == Double.class;
+    }
+
+    private static boolean isIntegral(Class<?> type) {
+        return type == Byte.class || type == Short.class || type == Integer.class || type == Long.class;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+
+@Path("/watermarks")
+public class WatermarkResource {
+
+    private final GraphDatabaseService database;
+
+    public WatermarkResource(@Context GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    @GET
+    @Produces("application/json")
+    public Response getWatermarks() throws IOException {
+        return Response.status(Response.Status.OK).entity(Watermarks.getInstance().toJson() + "\n").build();
+    }
+
+    @GET
+    @Path("/{name}")
+    @Produces("application/json")
+    public Response getWatermark(@PathParam("name") String name) throws IOException {
+        Watermarks.Watermark watermark = Watermarks.getInstance().get(name);
+        if (watermark == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.status(Response.Status.OK).entity(watermark.toJson() + "\n").build();
+    }
+
+    /**
+     * Record the current node and relationship id limits under a name,
+     * replacing any earlier watermark of the same name.
+     */
+    @PUT
+    @Path("/{name}")
+    @Produces("application/json")
+    public Response putWatermark(@PathParam("name") String name) throws IOException {
+        Watermarks.Watermark watermark;
+        try {
+            watermark = Watermarks.getInstance().put(name, Watermarks.getIdLimit(database, Node.class),
+                    Watermarks.getIdLimit(database, Relationship.class));
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        return Response.status(Response.Status.OK).entity(watermark.toJson() + "\n").build();
+    }
+
+    @DELETE
+    @Path("/{name}")
+    public Response deleteWatermark(@PathParam("name") String name) throws IOException {
+        if (!Watermarks.getInstance().remove(name)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.status(Response.Status.NO_CONTENT).build();
+    }
+
+    /**
+     * Delete every relationship and node created since a watermark was
+     * recorded, by walking the id space upward from the watermark.
+     */
+    @POST
+    @Path("/{name}/reset")
+    @Produces("text/x-tab-separated-json; charset=UTF-8")
+    public Response reset(@PathParam("name") String name,
+                          @QueryParam("batch_size") Integer batchSize,
+                          @QueryParam("parallelism") Integer parallelism,
+                          @QueryParam("async") boolean async,
+                          @QueryParam("progress") boolean progress,
+                          @Context UriInfo info) throws IOException {
+        Watermarks.Watermark watermark = Watermarks.getInstance().get(name);
+        if (watermark == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        BulkDelete delete;
+        try {
+            BatchDeleter deleter = new BatchDeleter(database,
+                    batchSize == null ? Settings.DELETE_BATCH_SIZE : batchSize, new DeleteProgress());
+            delete = new Wipe(deleter, new RetryPolicy(Settings.RETRIES, Settings.RETRY_BACKOFF),
+                    parallelism == null ? Settings.DELETE_PARALLELISM : parallelism,
+                    watermark.nodeIdLimit, Watermarks.getIdLimit(database, Node.class),
+                    watermark.relationshipIdLimit, Watermarks.getIdLimit(database, Relationship.class));
+        } catch (IllegalArgumentException ex) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage() + "\n").build();
+        }
+        return AllTheThingsResource.start(delete, async, progress, info);
+    }
+
+}
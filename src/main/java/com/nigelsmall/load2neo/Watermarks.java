@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Named records of the node and relationship id limits at a point in time,
+ * kept in a file in the data directory so that they survive a restart.
+ * Everything created after a watermark was recorded has an id at or above
+ * it, unless Neo4j has since reused the id of a deleted entity.
+ */
+class Watermarks {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static Watermarks INSTANCE = new Watermarks(new File(Settings.DATA_DIR, "watermarks.properties"));
+
+    static Watermarks getInstance() {
+        return INSTANCE;
+    }
+
+    static class Watermark {
+
+        final String name;
+        final long nodeIdLimit;
+        final long relationshipIdLimit;
+        final long time;
+
+        Watermark(String name, long nodeIdLimit, long relationshipIdLimit, long time) {
+            this.name = name;
+            this.nodeIdLimit = nodeIdLimit;
+            this.relationshipIdLimit = relationshipIdLimit;
+            this.time = time;
+        }
+
+        String toJson() {
+            return "{" +
+                    "\"name\":" + Job.quote(name) + "," +
+                    "\"node_id_limit\":" + nodeIdLimit + "," +
+                    "\"relationship_id_limit\":" + relationshipIdLimit + "," +
+                    "\"time\":" + time +
+                    "}";
+        }
+
+    }
+
+    /**
+     * Return one more than the highest id that may be in use for nodes or
+     * relationships. Neo4j 2.0 has no public API for this, so it is read
+     * from the kernel here and nowhere else; it is needed only to record a
+     * watermark, to bound the reset to one and to estimate what a full wipe
+     * has left to delete.
+     */
+    @SuppressWarnings("deprecation")
+    static long getIdLimit(GraphDatabaseService database, Class<?> type) {
+        NodeManager nodeManager = ((org.neo4j.kernel.GraphDatabaseAPI) database).getDependencyResolver()
+                .resolveDependency(NodeManager.class);
+        return nodeManager.getHighestPossibleIdInUse(type) + 1;
+    }
+
+    private final File file;
+
+    Watermarks(File file) {
+        this.file = file;
+    }
+
+    synchronized Watermark get(String name) throws IOException {
+        return read().get(name);
+    }
+
+    synchronized Watermark put(String name, long nodeIdLimit, long relationshipIdLimit) throws IOException {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("watermark name must not be empty");
+        }
+        Map<String, Watermark> watermarks = read();
+        Watermark watermark = new Watermark(name, nodeIdLimit, relationshipIdLimit, System.currentTimeMillis());
+        watermarks.put(name, watermark);
+        write(watermarks);
+        return watermark;
+    }
+
+    synchronized boolean remove(String name) throws IOException {
+        Map<String, Watermark> watermarks = read();
+        if (watermarks.remove(name) == null) {
+            return false;
+        }
+        write(watermarks);
+        return true;
+    }
+
+    synchronized String toJson() throws IOException {
+        StringBuilder builder = new StringBuilder("[");
+        String separator = "";
+        for (Watermark watermark : read().values()) {
+            builder.append(separator).append(watermark.toJson());
+            separator = ",";
+        }
+        return builder.append("]").toString();
+    }
+
+    private Map<String, Watermark> read() throws IOException {
+        Map<String, Watermark> watermarks = new TreeMap<>();
+        if (!file.exists()) {
+            return watermarks;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), UTF8)) {
+            properties.load(reader);
+        }
+        for (String name : properties.stringPropertyNames()) {
+            String[] values = properties.getProperty(name).trim().split("\\s+");
+            try {
+                watermarks.put(name, new Watermark(name, Long.parseLong(values[0]), Long.parseLong(values[1]),
+                        Long.parseLong(values[2])));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                throw new IOException("Malformed watermark " + name + " in " + file);
+            }
+        }
+        return watermarks;
+    }
+
+    private void write(Map<String, Watermark> watermarks) throws IOException {
+        Properties properties = new Properties();
+        for (Watermark watermark : watermarks.values()) {
+            properties.setProperty(watermark.name,
+                    watermark.nodeIdLimit + " " + watermark.relationshipIdLimit + " " + watermark.time);
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        // write and sync a temporary file and move it into place, so that a crash never leaves a partial file
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            Writer writer = new OutputStreamWriter(out, UTF8);
+            properties.store(writer, "load2neo watermarks: node id limit, relationship id limit, time");
+            writer.flush();
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Deletes every relationship and then every node in the database, or only
+ * those with ids in given ranges. Ids are streamed in batches, from a scan
+ * of the whole database or from the ranges, to as many workers as are
+ * asked for, up to the server-wide maximum. Each worker deletes a batch at
+ * a time, retrying any batch that deadlocks with another.
+ */
+class Wipe extends BulkDelete {
+
+    private final int parallelism;
+    private final boolean ranged;
+    private final long nodeIdFrom;
+    private final long nodeIdTo;
+    private final long relationshipIdFrom;
+    private final long relationshipIdTo;
+
+    private volatile IdStream relationshipIds = null;
+    private volatile IdStream nodeIds = null;
+
+    /**
+     * Create a wipe of the whole database. The id limits at this point are
+     * kept as an upper bound for the entities there are to delete.
+     */
+    Wipe(BatchDeleter deleter, RetryPolicy retryPolicy, int parallelism) {
+        this(deleter, retryPolicy, parallelism, false, 0, deleter.getIdLimit(Node.class),
+                0, deleter.getIdLimit(Relationship.class));
+    }
+
+    /**
+     * Create a wipe of the nodes with ids from {@code nodeIdFrom} up to
+     * but excluding {@code nodeIdTo}, and likewise for relationships.
+     */
+    Wipe(BatchDeleter deleter, RetryPolicy retryPolicy, int parallelism,
+         long nodeIdFrom, long nodeIdTo, long relationshipIdFrom, long relationshipIdTo) {
+        this(deleter, retryPolicy, parallelism, true, nodeIdFrom, nodeIdTo, relationshipIdFrom, relationshipIdTo);
+    }
+
+    private Wipe(BatchDeleter deleter, RetryPolicy retryPolicy, int parallelism, boolean ranged,
+                 long nodeIdFrom, long nodeIdTo, long relationshipIdFrom, long relationshipIdTo) {
+        super(deleter, retryPolicy);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = Math.min(parallelism, Settings.MAX_PARALLELISM);
+        this.ranged = ranged;
+        this.nodeIdFrom = nodeIdFrom;
+        this.nodeIdTo = nodeIdTo;
+        this.relationshipIdFrom = relationshipIdFrom;
+        this.relationshipIdTo = relationshipIdTo;
+    }
+
+    /**
+     * Report the ids still to be visited. A scan of the whole database
+     * cannot know this, so a full wipe reports the id limit it started with
+     * less the entities deleted so far, which is an upper bound.
+     */
+    @Override
+    void appendJson(StringBuilder builder) {
+        DeleteProgress progress = deleter.getProgress();
+        builder.append("\"relationship_ids_remaining\":").append(getRemaining(relationshipIds,
+                relationshipIdTo - relationshipIdFrom, progress.getRelationships())).append(",");
+        builder.append("\"node_ids_remaining\":").append(getRemaining(nodeIds,
+                nodeIdTo - nodeIdFrom, progress.getNodes())).append(",");
+    }
+
+    private long getRemaining(IdStream stream, long size, long deleted) {
+        if (!ranged) {
+            return Math.max(size - deleted, 0);
+        }
+        return stream == null ? Math.max(size, 0) : stream.getRemaining();
+    }
+
+    @Override
+    void run(Listener listener) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory("load2neo-wipe"));
+        try {
+            // relationships first, so that most nodes are bare by the time they are deleted
+            relationshipIds = ranged ? deleter.idRange(relationshipIdFrom, relationshipIdTo) :
+                    deleter.relationshipIds(null);
+            runPhase(workers, relationshipIds, false, listener);
+            nodeIds = ranged ? deleter.idRange(nodeIdFrom, nodeIdTo) : deleter.nodeIds();
+            runPhase(workers, nodeIds, true, listener);
+        } finally {
+            cancelled = true;
+            if (relationshipIds != null) {
+                relationshipIds.close();
+            }
+            if (nodeIds != null) {
+                nodeIds.close();
+            }
+            workers.shutdown();
+            MergeCache.getInstance().clear();
+        }
+        listener.progress(this);
+    }
+
+    private void runPhase(ExecutorService workers, IdStream ids, boolean nodes, Listener listener)
+            throws IOException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < parallelism; i++) {
+            futures.add(workers.submit(workerTask(ids, nodes)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(PROGRESS_MILLIS, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException ex) {
+                        listener.progress(this);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while deleting");
+        } catch (ExecutionException ex) {
+            cancelled = true;
+            Throwable cause = ex.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (IOException | RuntimeException ex) {
+            cancelled = true;
+            throw ex;
+        }
+    }
+
+    private Callable<Void> workerTask(final IdStream ids, final boolean nodes) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                drain(ids, new IdStep() {
+                    @Override
+                    public int run(long[] batch, int from) {
+                        return nodes ? deleter.deleteNodes(batch, from) : deleter.deleteRelationships(batch, from);
+                    }
+                }, null);
+                return null;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nigelsmall.load2neo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    @Test
+    public void containsEverythingAdded() {
+        BloomFilter filter = new BloomFilter(100000, 0.01);
+        for (int i = 0; i < 100000; i++) {
+            filter.add("Person:name:" + i);
+        }
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(filter.mightContain("Person:name:" + i));
+        }
+    }
+
+    @Test
+    public void keepsFalsePositivesNearTheTargetRate() {
+        BloomFilter filter = new BloomFilter(100000, 0.01);
+        for (int i = 0; i < 100000; i++) {
+            filter.add("Person:name:" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("Place:name:" + i)) {
+                falsePositives += 1;
+            }
+        }
+        assertTrue("false positive rate " + falsePositives / 100000.0, falsePositives < 2000);
+    }
+
+    @Test
+    public void sizesToWholeLongs() {
+        assertEquals(64, BloomFilter.getBitCount(1, 0.01));
+        assertEquals(0, BloomFilter.getBitCount(100000, 0.01) % 64);
+    }
+
+    @Test
+    public void holdsHugeFiltersToTheMaximumSize() {
+        assertEquals(BloomFilter.MAX_BITS, BloomFilter.getBitCount(1000000000000L, 0.01));
+        assertEquals(BloomFilter.MAX_BITS, BloomFilter.getBitCount(Long.MAX_VALUE, 0.000001));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoEntries() {
+        new BloomFilter(0, 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnImpossibleProbability() {
+        new BloomFilter(1000, 1.5);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nigelsmall.load2neo;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CheckpointTest {
+
+    private final static List<Map<String, Node>> NO_RESULTS = Collections.emptyList();
+
+    @Test
+    public void resumeSkipsBatchesCommittedOutOfOrder() throws IOException {
+        Checkpoint checkpoint = Checkpoint.open("ahead", false);
+        checkpoint.committed(4, 2, NO_RESULTS, false);
+        checkpoint.committed(8, 2, NO_RESULTS, false);
+        checkpoint.close(false);
+        checkpoint = Checkpoint.open("ahead", true);
+        assertEquals(4, checkpoint.getCommitted());
+        assertEquals(0, checkpoint.firstPending(0));
+        assertEquals(6, checkpoint.firstPending(4));
+        assertEquals(6, checkpoint.firstPending(5));
+        assertEquals(7, checkpoint.firstPending(7));
+        assertEquals(10, checkpoint.firstPending(8));
+        assertEquals(10, checkpoint.firstPending(10));
+        // fill the gaps, each of which joins the ranges either side of it
+        checkpoint.committed(0, 4, NO_RESULTS, false);
+        checkpoint.committed(6, 2, NO_RESULTS, false);
+        checkpoint.close(false);
+        checkpoint = Checkpoint.open("ahead", true);
+        assertEquals(10, checkpoint.getCommitted());
+        assertEquals(10, checkpoint.firstPending(0));
+        checkpoint.close(true);
+    }
+
+    @Test
+    public void startingAfreshForgetsEarlierAttempts() throws IOException {
+        Checkpoint checkpoint = Checkpoint.open("afresh", false);
+        checkpoint.committed(0, 3, NO_RESULTS, false);
+        checkpoint.committed(5, 1, NO_RESULTS, false);
+        checkpoint.close(false);
+        checkpoint = Checkpoint.open("afresh", false);
+        assertEquals(0, checkpoint.getCommitted());
+        assertEquals(0, checkpoint.firstPending(0));
+        assertEquals(5, checkpoint.firstPending(5));
+        checkpoint.close(true);
+    }
+
+    @Test
+    public void loadIdCanOnlyRunOnce() throws IOException {
+        Checkpoint checkpoint = Checkpoint.open("once", false);
+        try {
+            Checkpoint.open("once", true);
+            fail("checkpoint was opened twice");
+        } catch (IllegalStateException ex) {
+            // expected
+        } finally {
+            checkpoint.close(true);
+        }
+        Checkpoint.open("once", true).close(true);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nigelsmall.load2neo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class OffHeapNameMapTest {
+
+    @Test
+    public void getsWhatWasPut() {
+        NameMap names = new OffHeapNameMap();
+        names.put("alice", 1);
+        names.put("bob", 2);
+        names.put("", 3);
+        names.put("\u00e9l\u00e9onore", 4);
+        assertEquals(1, names.get("alice"));
+        assertEquals(2, names.get("bob"));
+        assertEquals(3, names.get(""));
+        assertEquals(4, names.get("\u00e9l\u00e9onore"));
+        assertEquals(-1, names.get("carol"));
+        names.close();
+    }
+
+    @Test
+    public void replacesAnExistingName() {
+        NameMap names = new OffHeapNameMap();
+        names.put("alice", 1);
+        names.put("alice", 7);
+        assertEquals(7, names.get("alice"));
+        names.close();
+    }
+
+    @Test
+    public void keepsCollidingNamesApart() {
+        // with four slots, most names share a slot with another and are found by probing
+        NameMap names = new OffHeapNameMap(4);
+        names.put("a", 1);
+        names.put("b", 2);
+        names.put("ab", 3);
+        names.put("ba", 4);
+        assertEquals(1, names.get("a"));
+        assertEquals(2, names.get("b"));
+        assertEquals(3, names.get("ab"));
+        assertEquals(4, names.get("ba"));
+        assertEquals(-1, names.get("aa"));
+        names.close();
+    }
+
+    @Test
+    public void growsFromATinyTable() {
+        NameMap names = new OffHeapNameMap(1);
+        for (int i = 0; i < 100000; i++) {
+            names.put("node" + i, i);
+        }
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(i, names.get("node" + i));
+        }
+        assertEquals(-1, names.get("node100000"));
+        names.close();
+    }
+
+    @Test
+    public void storesNamesAcrossSeveralKeyPages() {
+        char[] padding = new char[1000];
+        Arrays.fill(padding, 'x');
+        String prefix = new String(padding);
+        NameMap names = new OffHeapNameMap();
+        // 20000 names of about 1 KB fill more than one 16 MB key page
+        for (int i = 0; i < 20000; i++) {
+            names.put(prefix + i, i);
+        }
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(i, names.get(prefix + i));
+        }
+        names.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotBeUsedOnceClosed() {
+        NameMap names = new OffHeapNameMap();
+        names.put("alice", 1);
+        names.close();
+        names.get("alice");
+    }
+
+}
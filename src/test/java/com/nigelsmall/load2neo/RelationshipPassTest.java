@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nigelsmall.load2neo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RelationshipPassTest {
+
+    @Test
+    public void keepsRelationshipsWithACommonEndNodeTogether() {
+        // every relationship ends at node 100, but their start nodes spread them over four ranges
+        RelationshipPass pass = new RelationshipPass();
+        for (long start = 1; start <= 8; start++) {
+            pass.add(start, 100, null);
+        }
+        List<List<RelationshipPass.Entry>> partitions = pass.partition(4, noDense());
+        assertDisjoint(partitions, noDense());
+        assertEquals(8, count(partitions) + pass.getCrossing().size());
+    }
+
+    @Test
+    public void keepsRelationshipsMeetingAtAStartAndAnEndNodeTogether() {
+        // node 5 is the start of one relationship and the end of another far away in start order
+        RelationshipPass pass = new RelationshipPass();
+        pass.add(1, 2, null);
+        pass.add(3, 4, null);
+        pass.add(5, 6, null);
+        pass.add(7, 8, null);
+        pass.add(9, 5, null);
+        pass.add(11, 12, null);
+        List<List<RelationshipPass.Entry>> partitions = pass.partition(3, noDense());
+        assertDisjoint(partitions, noDense());
+        assertEquals(6, count(partitions) + pass.getCrossing().size());
+    }
+
+    @Test
+    public void keepsPartitionsApartFromDenseRelationships() {
+        RelationshipPass pass = new RelationshipPass();
+        for (long end = 1000; end < 1050; end++) {
+            pass.add(1, end, null);
+        }
+        pass.add(2, 1000, null);
+        pass.add(3, 4, null);
+        List<RelationshipPass.Entry> dense = pass.removeDense(40);
+        assertEquals(50, dense.size());
+        List<List<RelationshipPass.Entry>> partitions = pass.partition(2, dense);
+        assertDisjoint(partitions, dense);
+        // 2-1000 shares node 1000 with the dense relationships, so it waits until they are done
+        assertEquals(1, count(partitions));
+        assertEquals(1, pass.getCrossing().size());
+        assertEquals(1000, pass.getCrossing().get(0).getEndNode());
+    }
+
+    @Test
+    public void neverSharesANodeBetweenPartitionsOfRandomRelationships() {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            RelationshipPass pass = new RelationshipPass();
+            int size = 100 + random.nextInt(2000);
+            for (int i = 0; i < size; i++) {
+                pass.add(random.nextInt(size), random.nextInt(size), null);
+            }
+            for (int i = 0; i < 50; i++) {
+                pass.add(1, size + i, null);
+            }
+            List<RelationshipPass.Entry> dense = pass.removeDense(40);
+            List<List<RelationshipPass.Entry>> partitions = pass.partition(1 + random.nextInt(8), dense);
+            assertDisjoint(partitions, dense);
+            assertEquals(size + 50, count(partitions) + dense.size() + pass.getCrossing().size());
+        }
+    }
+
+    private static List<RelationshipPass.Entry> noDense() {
+        return Collections.emptyList();
+    }
+
+    private static int count(List<List<RelationshipPass.Entry>> partitions) {
+        int count = 0;
+        for (List<RelationshipPass.Entry> partition : partitions) {
+            count += partition.size();
+        }
+        return count;
+    }
+
+    /**
+     * Check that no node is touched by two partitions, or by a partition
+     * and the dense relationships.
+     */
+    private static void assertDisjoint(List<List<RelationshipPass.Entry>> partitions,
+                                       List<RelationshipPass.Entry> dense) {
+        List<List<RelationshipPass.Entry>> groups = new ArrayList<>(partitions);
+        groups.add(dense);
+        Map<Long, Integer> owners = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            assertTrue(i == partitions.size() || !groups.get(i).isEmpty());
+            for (RelationshipPass.Entry entry : groups.get(i)) {
+                for (long node : new long[]{entry.getStartNode(), entry.getEndNode()}) {
+                    Integer owner = owners.put(node, i);
+                    if (owner != null && owner != i) {
+                        assertNull("node " + node + " is in groups " + owner + " and " + i, owner);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2014, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nigelsmall.load2neo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class SpoolTest {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoveryDiscardsTornTrailingFrame() throws IOException {
+        File directory = folder.getRoot();
+        Spool spool = new Spool(directory, 1 << 20);
+        spool.append(bytes("(a)"));
+        spool.append(bytes("(b)"));
+        spool.append(bytes("(c)"));
+        File open = openSegment(directory);
+        byte[] data = Files.readAllBytes(open.toPath());
+        Files.write(open.toPath(), Arrays.copyOf(data, data.length - 2));
+        Spool recovered = new Spool(directory, 1 << 20);
+        assertEquals("(a)\n~~~~\n(b)\n~~~~\n", read(recovered.nextSealed()));
+    }
+
+    @Test
+    public void recoveryDiscardsCorruptTrailingFrame() throws IOException {
+        File directory = folder.getRoot();
+        Spool spool = new Spool(directory, 1 << 20);
+        spool.append(bytes("(a)"));
+        spool.append(bytes("(b)"));
+        File open = openSegment(directory);
+        byte[] data = Files.readAllBytes(open.toPath());
+        data[data.length - 2] ^= 1;
+        Files.write(open.toPath(), data);
+        Spool recovered = new Spool(directory, 1 << 20);
+        assertEquals("(a)\n~~~~\n", read(recovered.nextSealed()));
+    }
+
+    @Test
+    public void recoveryDeletesSegmentWithNoCompleteFrame() throws IOException {
+        File directory = folder.getRoot();
+        Spool spool = new Spool(directory, 1 << 20);
+        spool.append(bytes("(a)"));
+        File open = openSegment(directory);
+        byte[] data = Files.readAllBytes(open.toPath());
+        Files.write(open.toPath(), Arrays.copyOf(data, 5));
+        Spool recovered = new Spool(directory, 1 << 20);
+        assertNull(recovered.nextSealed());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void resumedSpoolAppendsAfterRecoveredSegment() throws IOException {
+        File directory = folder.getRoot();
+        Spool spool = new Spool(directory, 1 << 20);
+        spool.append(bytes("(a)"));
+        Spool resumed = new Spool(directory, 1 << 20);
+        resumed.append(bytes("(b)"));
+        resumed.sealIfOlderThan(0);
+        File first = resumed.nextSealed();
+        assertEquals("(a)\n~~~~\n", read(first));
+        resumed.remove(first);
+        assertEquals("(b)\n~~~~\n", read(resumed.nextSealed()));
+    }
+
+    @Test
+    public void readingCorruptSealedSegmentFails() throws IOException {
+        File directory = folder.getRoot();
+        Spool spool = new Spool(directory, 1);
+        spool.append(bytes("(a)"));
+        File sealed = spool.nextSealed();
+        byte[] data = Files.readAllBytes(sealed.toPath());
+        data[data.length - 1] ^= 1;
+        Files.write(sealed.toPath(), data);
+        try {
+            read(sealed);
+            fail("corrupt segment was read");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF8);
+    }
+
+    private static File openSegment(File directory) {
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static String read(File segment) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Spool.read(segment)) {
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+        }
+        return new String(out.toByteArray(), UTF8);
+    }
+
+}